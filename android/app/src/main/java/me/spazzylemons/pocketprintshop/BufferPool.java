@@ -0,0 +1,221 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Keeps buffers for reuse, so that receiving and encoding prints does not churn the garbage
+ * collector. Arrays and direct buffers are pooled in power-of-two size classes, so an acquired
+ * buffer may be larger than requested. Buffers larger than the largest class are not pooled.
+ */
+public class BufferPool {
+    /** The log2 of the smallest size class. */
+    private static final int MIN_SHIFT = 10;
+    /** The log2 of the largest size class. */
+    private static final int MAX_SHIFT = 22;
+    /** The number of buffers kept in each size class. */
+    private static final int BUFFERS_PER_CLASS = 4;
+    /** The number of bitmaps kept. */
+    private static final int MAX_BITMAPS = 2;
+
+    /** The pool shared by all modules. */
+    private static final BufferPool INSTANCE = new BufferPool();
+
+    /**
+     * Create a new BufferPool. Outside of tests, use {@link #getInstance()}.
+     */
+    BufferPool() {
+    }
+
+    /**
+     * Allocates a buffer for a size class.
+     * @param <T> The type of buffer.
+     */
+    private interface Allocator<T> {
+        /**
+         * @param size The size of the buffer, in elements.
+         * @return A new buffer of the size.
+         */
+        @NonNull T allocate(int size);
+    }
+
+    /**
+     * The free buffers of one type, in each size class.
+     * @param <T> The type of buffer.
+     */
+    private static class Shelf<T> {
+        /** The free buffers in each size class. */
+        private final @NonNull ArrayBlockingQueue<T>[] classes;
+        /** Allocates buffers when a class is empty. */
+        private final @NonNull Allocator<T> allocator;
+
+        /**
+         * @param allocator Allocates buffers when a class is empty.
+         */
+        @SuppressWarnings("unchecked")
+        Shelf(@NonNull Allocator<T> allocator) {
+            this.classes = new ArrayBlockingQueue[MAX_SHIFT - MIN_SHIFT + 1];
+            for (int i = 0; i < this.classes.length; i++) {
+                this.classes[i] = new ArrayBlockingQueue<>(BUFFERS_PER_CLASS);
+            }
+            this.allocator = allocator;
+        }
+
+        /**
+         * @param size The number of elements needed.
+         * @return A free buffer with at least that many elements.
+         */
+        @NonNull T acquire(int size) {
+            int index = getSizeClass(size);
+            if (index < 0) {
+                return this.allocator.allocate(size);
+            }
+            T buffer = this.classes[index].poll();
+            if (buffer == null) {
+                Metrics.getInstance().increment(Metrics.Counter.POOL_MISSES);
+                buffer = this.allocator.allocate(1 << (index + MIN_SHIFT));
+            }
+            return buffer;
+        }
+
+        /**
+         * @param buffer The buffer to return.
+         * @param size   The number of elements in the buffer.
+         */
+        void release(@NonNull T buffer, int size) {
+            int index = getSizeClass(size);
+            // buffers that were not acquired from a class are left to the garbage collector
+            if (index >= 0 && size == 1 << (index + MIN_SHIFT)) {
+                this.classes[index].offer(buffer);
+            }
+        }
+    }
+
+    /** The free byte arrays. */
+    private final @NonNull Shelf<byte[]> bytes = new Shelf<>(size -> new byte[size]);
+    /** The free int arrays. */
+    private final @NonNull Shelf<int[]> ints = new Shelf<>(size -> new int[size]);
+    /** The free direct buffers. */
+    private final @NonNull Shelf<ByteBuffer> directBuffers = new Shelf<>(ByteBuffer::allocateDirect);
+    /** The free bitmaps. */
+    private final @NonNull ArrayBlockingQueue<Bitmap> bitmaps = new ArrayBlockingQueue<>(MAX_BITMAPS);
+
+    /**
+     * @return The pool shared by all modules.
+     */
+    public static @NonNull BufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param size A number of elements.
+     * @return The index of the smallest size class that holds that many, or -1 if none does.
+     */
+    static int getSizeClass(int size) {
+        if (size > 1 << MAX_SHIFT) return -1;
+        if (size <= 1 << MIN_SHIFT) return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * @param size The number of bytes needed.
+     * @return An array of at least that many bytes. Its contents are undefined.
+     */
+    public @NonNull byte[] acquireBytes(int size) {
+        return this.bytes.acquire(size);
+    }
+
+    /**
+     * Return an array to the pool. It must not be used afterwards.
+     * @param array The array.
+     */
+    public void release(@NonNull byte[] array) {
+        this.bytes.release(array, array.length);
+    }
+
+    /**
+     * @param size The number of ints needed.
+     * @return An array of at least that many ints. Its contents are undefined.
+     */
+    public @NonNull int[] acquireInts(int size) {
+        return this.ints.acquire(size);
+    }
+
+    /**
+     * Return an array to the pool. It must not be used afterwards.
+     * @param array The array.
+     */
+    public void release(@NonNull int[] array) {
+        this.ints.release(array, array.length);
+    }
+
+    /**
+     * @param size The number of bytes needed.
+     * @return A cleared direct buffer with a capacity of at least that many bytes.
+     */
+    public @NonNull ByteBuffer acquireDirect(int size) {
+        ByteBuffer buffer = this.directBuffers.acquire(size);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Return a direct buffer to the pool. It must not be used afterwards.
+     * @param buffer The buffer.
+     */
+    public void release(@NonNull ByteBuffer buffer) {
+        if (buffer.isDirect()) {
+            this.directBuffers.release(buffer, buffer.capacity());
+        }
+    }
+
+    /**
+     * @param width  The width of the bitmap in pixels.
+     * @param height The height of the bitmap in pixels.
+     * @return A mutable ARGB bitmap of the size. Its contents are undefined.
+     */
+    public @NonNull Bitmap acquireBitmap(int width, int height) {
+        Bitmap bitmap = this.bitmaps.poll();
+        if (bitmap != null) {
+            if (!bitmap.isRecycled() && bitmap.getAllocationByteCount() >= width * height * 4) {
+                bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+                return bitmap;
+            }
+            bitmap.recycle();
+        }
+        Metrics.getInstance().increment(Metrics.Counter.POOL_MISSES);
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Return a bitmap to the pool. It must not be used afterwards.
+     * @param bitmap The bitmap.
+     */
+    public void release(@NonNull Bitmap bitmap) {
+        if (!bitmap.isMutable() || bitmap.isRecycled() || !this.bitmaps.offer(bitmap)) {
+            bitmap.recycle();
+        }
+    }
+}
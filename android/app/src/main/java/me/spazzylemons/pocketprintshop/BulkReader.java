@@ -0,0 +1,320 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.hoho.android.usbserial.driver.FtdiSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads from a port by keeping several bulk transfers queued on its read endpoint. A single
+ * blocking read leaves the endpoint idle between transfers, which loses data at high baud rates.
+ * Completed transfers are delivered in the order they were queued, and then queued again.
+ */
+public class BulkReader {
+    /** The tag used for logging. */
+    private static final String TAG = "BulkReader";
+    /** The maximum number of transfers that may be queued at once. */
+    public static final int MAX_REQUESTS = 64;
+
+    /**
+     * Receives the data read from the port.
+     */
+    public interface Listener {
+        /**
+         * Called on the reader thread when data is read.
+         * @param data   The buffer containing the data. Only valid until this method returns.
+         * @param length The number of bytes read.
+         */
+        void onNewData(@NonNull byte[] data, int length);
+
+        /**
+         * Called on the reader thread when reading fails. No more data is read afterwards.
+         * @param e The reason that reading failed.
+         */
+        void onRunError(@NonNull Exception e);
+    }
+
+    /**
+     * The calls on the device that the reader makes, so that tests can stand in for a device.
+     */
+    interface Device {
+        /**
+         * @return A new request for the read endpoint.
+         * @throws IOException If the request cannot be initialized.
+         */
+        @NonNull UsbRequest openRequest() throws IOException;
+
+        /**
+         * Wait for a queued request to complete, including one that was cancelled.
+         * @return The request, or null if the connection was closed or the device is gone.
+         */
+        @Nullable UsbRequest requestWait();
+    }
+
+    /**
+     * A queued transfer and its buffer.
+     */
+    private static class Slot {
+        /** The request used for the transfer. */
+        final @NonNull UsbRequest request;
+        /** The buffer that the transfer reads into. Taken from the buffer pool. */
+        final @NonNull ByteBuffer buffer;
+        /** True if the request is queued. */
+        volatile boolean queued = false;
+        /** True if the transfer has completed but has not been delivered. */
+        boolean done = false;
+
+        /**
+         * Create a new slot.
+         * @param request The request used for the transfer.
+         * @param size    The size of each transfer in bytes.
+         */
+        Slot(@NonNull UsbRequest request, int size) {
+            this.request = request;
+            this.buffer = BufferPool.getInstance().acquireDirect(size);
+        }
+    }
+
+    /** The device to queue transfers on. */
+    private final @NonNull Device device;
+    /** The number of transfers to keep queued. */
+    private final int requestCount;
+    /** The size of each transfer in bytes. */
+    private final int transferSize;
+    /** The priority of the reader thread. */
+    private final int threadPriority;
+    /** The listener that receives the data. */
+    private final @NonNull Listener listener;
+    /** True until the reader is stopped or fails. Only set to false with this object's lock held. */
+    private volatile boolean running = false;
+    /** The slots of the reader thread, or null until it has created them. Guarded by this object's lock. */
+    private @Nullable Slot[] slots = null;
+    /** The reader thread, or null if not started. */
+    private @Nullable Thread thread = null;
+
+    /**
+     * Create a new BulkReader. Reading does not begin until {@link #start()} is called.
+     * @param connection     The connection to queue transfers on.
+     * @param endpoint       The endpoint to read from.
+     * @param requestCount   The number of transfers to keep queued.
+     * @param transferSize   The size of each transfer in bytes, or 0 to use the endpoint's packet size.
+     * @param threadPriority The priority of the reader thread.
+     * @param listener       The listener that receives the data.
+     * @throws IllegalArgumentException If the request count is out of range.
+     */
+    public BulkReader(@NonNull UsbDeviceConnection connection, @NonNull UsbEndpoint endpoint, int requestCount,
+                      int transferSize, int threadPriority, @NonNull Listener listener) {
+        this(new Device() {
+            @Override
+            public @NonNull UsbRequest openRequest() throws IOException {
+                UsbRequest request = new UsbRequest();
+                if (!request.initialize(connection, endpoint)) {
+                    request.close();
+                    throw new IOException("failed to initialize read request");
+                }
+                return request;
+            }
+
+            @Override
+            public @Nullable UsbRequest requestWait() {
+                return connection.requestWait();
+            }
+        }, requestCount, transferSize != 0 ? transferSize : endpoint.getMaxPacketSize(), threadPriority, listener);
+    }
+
+    /**
+     * Create a new BulkReader on a device.
+     * @param device         The device to queue transfers on.
+     * @param requestCount   The number of transfers to keep queued.
+     * @param transferSize   The size of each transfer in bytes.
+     * @param threadPriority The priority of the reader thread.
+     * @param listener       The listener that receives the data.
+     * @throws IllegalArgumentException If the request count is out of range.
+     */
+    BulkReader(@NonNull Device device, int requestCount, int transferSize, int threadPriority, @NonNull Listener listener) {
+        if (requestCount <= 0 || requestCount > MAX_REQUESTS) {
+            throw new IllegalArgumentException("invalid request count " + requestCount);
+        }
+        this.device = device;
+        this.requestCount = requestCount;
+        this.transferSize = transferSize;
+        this.threadPriority = threadPriority;
+        this.listener = listener;
+    }
+
+    /**
+     * Check if a port can be read with raw bulk transfers. FTDI devices put status bytes at the
+     * start of every packet, which only their driver's own reads remove.
+     * @param port The port to check.
+     * @return True if the port can be read by a BulkReader.
+     */
+    public static boolean isSupported(@NonNull UsbSerialPort port) {
+        return !(port.getDriver() instanceof FtdiSerialDriver);
+    }
+
+    /**
+     * Start reading on a new thread.
+     */
+    public synchronized void start() {
+        if (this.thread != null) {
+            throw new IllegalStateException("already started");
+        }
+        this.running = true;
+        this.thread = new Thread(this::run, TAG);
+        this.thread.start();
+    }
+
+    /**
+     * Stop reading. The queued transfers are cancelled, which wakes the reader thread even if the
+     * device never sends anything again, and the thread then frees the requests and buffers. Call
+     * this before closing the port.
+     */
+    public synchronized void stop() {
+        this.running = false;
+        if (this.slots == null) return;
+        for (Slot slot : this.slots) {
+            if (slot != null && slot.queued) {
+                slot.request.cancel();
+            }
+        }
+    }
+
+    /**
+     * Queue a transfer, unless the reader has been stopped.
+     * @param slot The slot to queue.
+     * @throws IOException If the transfer could not be queued.
+     */
+    @SuppressWarnings("deprecation")
+    private synchronized void queue(@NonNull Slot slot) throws IOException {
+        // checked with the lock held, so that stop() cancels every transfer that is queued
+        if (!this.running) return;
+        slot.buffer.clear();
+        // the length form is deprecated, but it is the only one available before API 26
+        if (!slot.request.queue(slot.buffer, this.transferSize)) {
+            throw new IOException("failed to queue read");
+        }
+        slot.queued = true;
+    }
+
+    /**
+     * Read from the port until stopped or until reading fails.
+     */
+    private void run() {
+        Process.setThreadPriority(this.threadPriority);
+        BufferPool pool = BufferPool.getInstance();
+        Slot[] slots = new Slot[this.requestCount];
+        byte[] scratch = pool.acquireBytes(this.transferSize);
+        // the slot whose transfer was queued first, and so must be delivered first
+        int head = 0;
+        synchronized (this) {
+            this.slots = slots;
+        }
+        try {
+            for (int i = 0; i < slots.length; i++) {
+                Slot slot = new Slot(this.device.openRequest(), this.transferSize);
+                slots[i] = slot;
+                slot.request.setClientData(slot);
+                this.queue(slot);
+            }
+            while (this.running) {
+                UsbRequest request = this.device.requestWait();
+                if (request == null) {
+                    // the connection was closed, or the device is gone
+                    throw new IOException("failed to wait for read");
+                }
+                Object clientData = request.getClientData();
+                if (!(clientData instanceof Slot)) continue;
+                Slot completed = (Slot) clientData;
+                completed.queued = false;
+                completed.done = true;
+                // transfers usually complete in order, but deliver them in order regardless
+                while (slots[head].done && this.running) {
+                    Slot slot = slots[head];
+                    slot.done = false;
+                    int length = slot.buffer.position();
+                    if (length > 0) {
+                        slot.buffer.flip();
+                        slot.buffer.get(scratch, 0, length);
+                        this.listener.onNewData(scratch, length);
+                    }
+                    this.queue(slot);
+                    head = (head + 1) % slots.length;
+                }
+            }
+        } catch (IOException e) {
+            boolean failed;
+            synchronized (this) {
+                failed = this.running;
+                this.running = false;
+            }
+            if (failed) {
+                this.listener.onRunError(e);
+            }
+        } finally {
+            this.cleanUp(slots);
+            pool.release(scratch);
+        }
+    }
+
+    /**
+     * Cancel any queued transfers and free the requests.
+     * @param slots The slots to clean up. Some may be null if initialization failed.
+     */
+    private void cleanUp(@NonNull Slot[] slots) {
+        int queued = 0;
+        for (Slot slot : slots) {
+            if (slot != null && slot.queued) {
+                slot.request.cancel();
+                queued++;
+            }
+        }
+        // cancelled transfers still complete, unless the connection is already closed
+        while (queued > 0) {
+            UsbRequest request = this.device.requestWait();
+            if (request == null) break;
+            Object clientData = request.getClientData();
+            if (clientData instanceof Slot && ((Slot) clientData).queued) {
+                ((Slot) clientData).queued = false;
+                queued--;
+            }
+        }
+        if (queued > 0) {
+            Log.w(TAG, queued + " reads were not cancelled, so their buffers are not reused");
+        }
+        for (Slot slot : slots) {
+            if (slot == null) continue;
+            slot.request.close();
+            if (!slot.queued) {
+                BufferPool.getInstance().release(slot.buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * The serial parameters and read tuning to use for a connection.
+ */
+public class ConnectOptions {
+    /** The default baud rate, used by the original emulator firmware. */
+    public static final int DEFAULT_BAUD_RATE = 115200;
+
+    /** The baud rate of the serial port. */
+    public final int baudRate;
+    /** The size of the read buffer in bytes, or 0 to use the driver's packet size. */
+    public final int readBufferSize;
+    /** The timeout of each read in milliseconds, or 0 to block until data arrives. */
+    public final int readTimeout;
+    /** The priority of the thread that reads from the port. */
+    public final int threadPriority;
+    /** The number of bulk transfers to keep queued, or 0 to read with one blocking transfer at a time. */
+    public final int readRequests;
+
+    /**
+     * Create a new set of options.
+     * @param baudRate       The baud rate of the serial port.
+     * @param readBufferSize The size of the read buffer in bytes, or 0 to use the driver's packet size.
+     * @param readTimeout    The timeout of each read in milliseconds, or 0 to block until data arrives.
+     * @param threadPriority The priority of the thread that reads from the port.
+     * @param readRequests   The number of bulk transfers to keep queued, or 0 to read with one
+     *                       blocking transfer at a time.
+     * @throws IllegalArgumentException If any option is out of range.
+     */
+    public ConnectOptions(int baudRate, int readBufferSize, int readTimeout, int threadPriority, int readRequests) {
+        if (baudRate <= 0) {
+            throw new IllegalArgumentException("invalid baud rate " + baudRate);
+        }
+        if (readBufferSize < 0) {
+            throw new IllegalArgumentException("invalid read buffer size " + readBufferSize);
+        }
+        if (readTimeout < 0) {
+            throw new IllegalArgumentException("invalid read timeout " + readTimeout);
+        }
+        if (threadPriority < Process.THREAD_PRIORITY_URGENT_AUDIO || threadPriority > Process.THREAD_PRIORITY_LOWEST) {
+            throw new IllegalArgumentException("invalid thread priority " + threadPriority);
+        }
+        if (readRequests < 0 || readRequests > BulkReader.MAX_REQUESTS) {
+            throw new IllegalArgumentException("invalid read request count " + readRequests);
+        }
+        this.baudRate = baudRate;
+        this.readBufferSize = readBufferSize;
+        this.readTimeout = readTimeout;
+        this.threadPriority = threadPriority;
+        this.readRequests = readRequests;
+    }
+
+    /**
+     * Create a set of options with the default values.
+     */
+    public ConnectOptions() {
+        this(DEFAULT_BAUD_RATE, 0, 0, Process.THREAD_PRIORITY_URGENT_AUDIO, 0);
+    }
+
+    /**
+     * Read options sent from JavaScript. Missing options keep their default values.
+     * @param map The options, or null to use the defaults.
+     * @return The options.
+     * @throws IllegalArgumentException If any option is out of range.
+     */
+    public static @NonNull ConnectOptions fromMap(@Nullable ReadableMap map) {
+        ConnectOptions defaults = new ConnectOptions();
+        if (map == null) return defaults;
+        return new ConnectOptions(
+                getInt(map, "baudRate", defaults.baudRate),
+                getInt(map, "readBufferSize", defaults.readBufferSize),
+                getInt(map, "readTimeout", defaults.readTimeout),
+                getInt(map, "threadPriority", defaults.threadPriority),
+                getInt(map, "readRequests", defaults.readRequests));
+    }
+
+    /**
+     * @param map          The map to read from.
+     * @param key          The key of the option.
+     * @param defaultValue The value to use if the option is missing.
+     * @return The value of the option.
+     */
+    private static int getInt(@NonNull ReadableMap map, @NonNull String key, int defaultValue) {
+        if (!map.hasKey(key) || map.isNull(key)) return defaultValue;
+        return map.getInt(key);
+    }
+}
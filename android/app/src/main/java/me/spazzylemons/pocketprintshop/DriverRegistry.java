@@ -0,0 +1,107 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialProber;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the drivers of the attached USB serial devices, so that looking up a device does not
+ * enumerate the whole bus. The bus is enumerated once, and afterwards only devices that are
+ * attached or detached are probed.
+ */
+public class DriverRegistry {
+    /** The prober used to find drivers for devices. */
+    private final @NonNull UsbSerialProber prober;
+    /** The known drivers, by device ID, in the order the devices were found. */
+    private final @NonNull Map<Integer, UsbSerialDriver> drivers = new LinkedHashMap<>();
+    /** True once the bus has been enumerated. */
+    private boolean loaded = false;
+
+    /**
+     * Create a new DriverRegistry.
+     * @param prober The prober used to find drivers for devices.
+     */
+    public DriverRegistry(@NonNull UsbSerialProber prober) {
+        this.prober = prober;
+    }
+
+    /**
+     * Enumerate the bus if it has not been enumerated yet.
+     * @param manager The USB manager.
+     * @return True if the bus was enumerated by this call.
+     */
+    public synchronized boolean load(@NonNull UsbManager manager) {
+        if (this.loaded) return false;
+        for (UsbSerialDriver driver : this.prober.findAllDrivers(manager)) {
+            this.drivers.put(driver.getDevice().getDeviceId(), driver);
+        }
+        this.loaded = true;
+        return true;
+    }
+
+    /**
+     * Probe a newly attached device. If the bus has not been enumerated yet, nothing is done, as
+     * the device will be found when it is.
+     * @param device The device that was attached.
+     * @return True if the device has a driver and was added.
+     */
+    public synchronized boolean add(@NonNull UsbDevice device) {
+        if (!this.loaded) return false;
+        UsbSerialDriver driver = this.prober.probeDevice(device);
+        if (driver == null) return false;
+        this.drivers.put(device.getDeviceId(), driver);
+        return true;
+    }
+
+    /**
+     * Forget a detached device.
+     * @param device The device that was detached.
+     * @return True if the device was known.
+     */
+    public synchronized boolean remove(@NonNull UsbDevice device) {
+        return this.drivers.remove(device.getDeviceId()) != null;
+    }
+
+    /**
+     * @param deviceId The ID of the device to find.
+     * @return The driver for the device, or null if there is none.
+     */
+    public synchronized @Nullable UsbSerialDriver get(int deviceId) {
+        return this.drivers.get(deviceId);
+    }
+
+    /**
+     * @return A snapshot of the known drivers.
+     */
+    public synchronized @NonNull List<UsbSerialDriver> getDrivers() {
+        return new ArrayList<>(this.drivers.values());
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Promise;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs image encoding off the React native-modules thread, on a pool with a thread per core and a
+ * bounded queue. Independent images are encoded in parallel, while the work on a single image is
+ * kept in order by a {@link Queue}.
+ */
+public class EncodeExecutor implements Executor {
+    /** The most threads to use, so that encoding does not starve USB I/O. */
+    private static final int MAX_THREADS = 4;
+    /** The number of jobs that may wait for a thread, and for each queue. */
+    private static final int QUEUE_CAPACITY = 32;
+    /** The time in seconds after which idle threads exit. */
+    private static final long KEEP_ALIVE = 30;
+
+    /** The instance shared by all modules, or null if it has not been created yet. */
+    private static @Nullable EncodeExecutor instance = null;
+
+    /**
+     * Work that produces a result for JavaScript.
+     */
+    public interface Job {
+        /**
+         * Do the work.
+         * @return The value to resolve the promise with.
+         * @throws Exception If the work fails, to reject the promise with.
+         */
+        @Nullable Object run() throws Exception;
+    }
+
+    /**
+     * A job waiting in a queue.
+     */
+    private static class Pending {
+        /** The job. */
+        final @NonNull Job job;
+        /** The promise to settle with the result of the job. */
+        final @NonNull Promise promise;
+
+        /**
+         * @param job     The job.
+         * @param promise The promise to settle with the result of the job.
+         */
+        Pending(@NonNull Job job, @NonNull Promise promise) {
+            this.job = job;
+            this.promise = promise;
+        }
+    }
+
+    /** The threads that run jobs. */
+    private final @NonNull ThreadPoolExecutor pool;
+    /** The number of jobs that may wait in each queue. */
+    private final int capacity;
+
+    /**
+     * @return The instance shared by all modules.
+     */
+    public static synchronized @NonNull EncodeExecutor getInstance() {
+        if (instance == null) {
+            int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+            instance = new EncodeExecutor(threads, QUEUE_CAPACITY);
+        }
+        return instance;
+    }
+
+    /**
+     * Create a new EncodeExecutor. Outside of tests, use {@link #getInstance()}.
+     * @param threads  The number of threads to run jobs on.
+     * @param capacity The number of jobs that may wait for a thread, and for each queue.
+     */
+    EncodeExecutor(int threads, int capacity) {
+        AtomicInteger count = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(capacity),
+                runnable -> new Thread(runnable, "EncodeExecutor-" + count.incrementAndGet()));
+        this.pool.allowCoreThreadTimeOut(true);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Run a job and settle a promise with its result.
+     * @param job     The job.
+     * @param promise The promise.
+     */
+    private static void complete(@NonNull Job job, @NonNull Promise promise) {
+        try {
+            promise.resolve(job.run());
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    /**
+     * Run a job on the pool.
+     * @param job     The job.
+     * @param promise Settled with the result of the job, or rejected if too many jobs are waiting.
+     */
+    public void submit(@NonNull Job job, @NonNull Promise promise) {
+        try {
+            this.pool.execute(() -> complete(job, promise));
+        } catch (RejectedExecutionException e) {
+            promise.reject(new IllegalStateException("encode queue full"));
+        }
+    }
+
+    /**
+     * Run a task that settles a promise itself on the pool.
+     * @param task    The task.
+     * @param promise Rejected if too many jobs are waiting, and otherwise left to the task.
+     */
+    public void execute(@NonNull Runnable task, @NonNull Promise promise) {
+        try {
+            this.pool.execute(task);
+        } catch (RejectedExecutionException e) {
+            promise.reject(new IllegalStateException("encode queue full"));
+        }
+    }
+
+    /**
+     * Run a task on the pool. If too many jobs are waiting, the task is run on the calling thread
+     * instead, so that work which must not be dropped slows its producer down. Work requested by
+     * JavaScript must not use this, since it would then run on the native-modules thread.
+     * @param task The task.
+     */
+    @Override
+    public void execute(@NonNull Runnable task) {
+        try {
+            this.pool.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * @return A new queue for the work on a single image.
+     */
+    public @NonNull Queue newQueue() {
+        return new Queue();
+    }
+
+    /**
+     * Runs jobs on the pool one at a time, in the order they were submitted.
+     */
+    public class Queue {
+        /** The jobs waiting to run, and their promises. */
+        private final @NonNull ArrayDeque<Pending> pending = new ArrayDeque<>();
+        /** True if a job from this queue is on the pool. */
+        private boolean running = false;
+        /** True if the queue was cancelled. */
+        private boolean cancelled = false;
+
+        /**
+         * Run a job after the jobs submitted before it.
+         * @param job     The job.
+         * @param promise Settled with the result of the job, or rejected if the queue is full or cancelled.
+         */
+        public synchronized void submit(@NonNull Job job, @NonNull Promise promise) {
+            if (this.cancelled) {
+                promise.reject(new CancellationException("cancelled"));
+                return;
+            }
+            if (this.pending.size() >= EncodeExecutor.this.capacity) {
+                promise.reject(new IllegalStateException("encode queue full"));
+                return;
+            }
+            this.pending.add(new Pending(job, promise));
+            if (!this.running) {
+                try {
+                    EncodeExecutor.this.pool.execute(this::runNext);
+                    this.running = true;
+                } catch (RejectedExecutionException e) {
+                    // the queue was empty, so the job just added is the only one
+                    this.pending.clear();
+                    promise.reject(new IllegalStateException("encode queue full"));
+                }
+            }
+        }
+
+        /**
+         * Run the next job, then hand the pool thread back before running the one after. If the
+         * pool is too busy to take it back, the jobs keep running on the current pool thread.
+         */
+        private void runNext() {
+            while (true) {
+                Pending entry;
+                synchronized (this) {
+                    entry = this.pending.poll();
+                    if (entry == null) {
+                        this.running = false;
+                        return;
+                    }
+                }
+                complete(entry.job, entry.promise);
+                synchronized (this) {
+                    if (this.pending.isEmpty()) {
+                        this.running = false;
+                        return;
+                    }
+                }
+                try {
+                    EncodeExecutor.this.pool.execute(this::runNext);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // keep going on this thread
+                }
+            }
+        }
+
+        /**
+         * Reject the jobs that have not started yet, and any jobs submitted later. A job that has
+         * already started is allowed to finish.
+         */
+        public void cancel() {
+            List<Pending> entries;
+            synchronized (this) {
+                this.cancelled = true;
+                entries = new ArrayList<>(this.pending);
+                this.pending.clear();
+            }
+            for (Pending entry : entries) {
+                entry.promise.reject(new CancellationException("cancelled"));
+            }
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+
+/**
+ * An incremental parser for the Game Boy Printer packet stream. Data may be fed in chunks of any
+ * size, and parsing resumes where the previous chunk left off.
+ * <p>
+ * The parser tolerates corruption. Bytes that do not start a packet are skipped until the next
+ * magic number, and a packet that fails its checksum is dropped on its own, so that the packets
+ * after it are still parsed. If the corruption may have hit the size of the packet, the parser
+ * searches for the next packet from just after the bad magic number instead of trusting the size.
+ * Headers with an unknown command or a size that the printer never accepts are treated the same way.
+ */
+public class GbpPacketParser {
+    /** Command to initialize the printer. */
+    public static final int COMMAND_INIT = 1;
+    /** Command to print the collected tile data. */
+    public static final int COMMAND_PRINT = 2;
+    /** Command to send tile data. */
+    public static final int COMMAND_FILL = 4;
+    /** Command to stop printing. */
+    public static final int COMMAND_BREAK = 8;
+    /** Command to request the printer status. */
+    public static final int COMMAND_STATUS = 15;
+
+    /** The low byte of the magic number that starts every packet. */
+    private static final byte MAGIC_LO = (byte) 0x88;
+    /** The high byte of the magic number that starts every packet. */
+    private static final byte MAGIC_HI = 0x33;
+    /** The size of the magic number, command, compression flag, and payload size. */
+    private static final int HEADER_SIZE = 6;
+    /** The size of the checksum, acknowledgement, and status. */
+    private static final int TRAILER_SIZE = 4;
+    /** The size of the payload of a print command. */
+    private static final int PRINT_SIZE = 4;
+    /**
+     * The largest payload accepted for tile data: two rows of tiles, plus the control bytes that
+     * compression can add. A larger size can only come from corruption, and waiting for that much
+     * data would hold up the packets behind it.
+     */
+    private static final int MAX_PAYLOAD = GbpRle.getMaxEncodedLength(GbpPacketWriter.FILL_BYTES);
+    /** The largest packet accepted. */
+    private static final int MAX_PACKET = HEADER_SIZE + MAX_PAYLOAD + TRAILER_SIZE;
+
+    /**
+     * Receives the packets parsed from the stream.
+     */
+    public interface Listener {
+        /**
+         * Called when a packet with a valid checksum has been parsed.
+         * @param command     The command of the packet.
+         * @param compression The compression flag of the packet.
+         * @param payload     The buffer containing the payload. Only valid until this method returns.
+         * @param size        The size of the payload.
+         */
+        void onPacket(int command, int compression, @NonNull byte[] payload, int size);
+
+        /**
+         * Called when corrupted data is dropped. Parsing continues with the next packet.
+         * @param message A description of the error.
+         */
+        void onError(@NonNull String message);
+    }
+
+    /** The listener that receives parsed packets. */
+    private final @NonNull Listener listener;
+    /** The payload of the current packet. */
+    private final @NonNull byte[] payload = new byte[MAX_PAYLOAD];
+    /**
+     * The data received but not yet parsed. It holds two of the largest packets, so that a
+     * complete packet always fits after the parsed data is moved out of the way.
+     */
+    private final @NonNull byte[] buffer = new byte[MAX_PACKET * 2];
+    /** The offset of the first byte in the buffer that has not been parsed. */
+    private int start = 0;
+    /** The end of the data in the buffer. */
+    private int end = 0;
+    /**
+     * True if the packet at the start of the buffer failed its checksum, and the parser is waiting
+     * to see whether the next packet follows it.
+     */
+    private boolean failed = false;
+    /** True if bytes have been skipped since the last packet, so that each gap is reported once. */
+    private boolean skipping = false;
+    /** The number of packets dropped because of checksum errors. */
+    private long droppedPackets = 0;
+    /** The number of bytes skipped while searching for the next packet. */
+    private long skippedBytes = 0;
+
+    /**
+     * Create a new GbpPacketParser.
+     * @param listener The listener that receives parsed packets.
+     */
+    public GbpPacketParser(@NonNull Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Discard any partially parsed packet. This also discards data that has been fed but not yet
+     * parsed, so it must not be called from the listener.
+     */
+    public void reset() {
+        this.start = 0;
+        this.end = 0;
+        this.failed = false;
+        this.skipping = false;
+    }
+
+    /**
+     * @return The number of packets dropped because of checksum errors, including the ones that
+     *         the emulator reported.
+     */
+    public long getDroppedPackets() {
+        return this.droppedPackets;
+    }
+
+    /**
+     * @return The number of bytes skipped while searching for the next packet.
+     */
+    public long getSkippedBytes() {
+        return this.skippedBytes;
+    }
+
+    /**
+     * Feed data into the parser.
+     * @param data The data to parse.
+     */
+    public void feed(@NonNull byte[] data) {
+        this.feed(data, 0, data.length);
+    }
+
+    /**
+     * Feed data into the parser.
+     * @param data   The buffer containing the data to parse.
+     * @param offset The offset of the data in the buffer.
+     * @param length The number of bytes to parse.
+     */
+    public void feed(@NonNull byte[] data, int offset, int length) {
+        while (length > 0) {
+            if (this.end == this.buffer.length) {
+                // move the unparsed data to the front, which is always less than a packet
+                System.arraycopy(this.buffer, this.start, this.buffer, 0, this.end - this.start);
+                this.end -= this.start;
+                this.start = 0;
+            }
+            int count = Math.min(length, this.buffer.length - this.end);
+            System.arraycopy(data, offset, this.buffer, this.end, count);
+            this.end += count;
+            offset += count;
+            length -= count;
+            this.parse();
+        }
+        if (this.start == this.end) {
+            // nothing is left over, so the next data can start at the front
+            this.start = 0;
+            this.end = 0;
+        }
+    }
+
+    /**
+     * Parse as many packets as possible from the buffered data.
+     */
+    private void parse() {
+        byte[] buffer = this.buffer;
+        while (true) {
+            // find the next magic number, keeping a trailing low byte in case the high byte follows
+            int i = this.start;
+            while (i < this.end && !(buffer[i] == MAGIC_LO && (i + 1 == this.end || buffer[i + 1] == MAGIC_HI))) {
+                i++;
+            }
+            if (i != this.start) {
+                this.skip(i - this.start);
+            }
+            int available = this.end - this.start;
+            if (available < HEADER_SIZE) {
+                return;
+            }
+            int command = buffer[this.start + 2] & 0xff;
+            int compression = buffer[this.start + 3] & 0xff;
+            int size = (buffer[this.start + 4] & 0xff) | ((buffer[this.start + 5] & 0xff) << 8);
+            if (compression > 1 || size > getMaxPayload(command)) {
+                // not a real packet, so look for one after this magic number
+                this.skip(1);
+                continue;
+            }
+            int length = HEADER_SIZE + size + TRAILER_SIZE;
+            if (available < length) {
+                return;
+            }
+            if (!this.failed) {
+                if (this.verify(size)) {
+                    System.arraycopy(buffer, this.start + HEADER_SIZE, this.payload, 0, size);
+                    this.start += length;
+                    this.skipping = false;
+                    Metrics.getInstance().increment(Metrics.Counter.PACKETS_PARSED);
+                    this.listener.onPacket(command, compression, this.payload, size);
+                    continue;
+                }
+                this.failed = true;
+            }
+            int next = this.start + length;
+            if (this.end - next < 2) {
+                // wait to see whether the next packet follows this one
+                return;
+            }
+            this.failed = false;
+            if (buffer[next] == MAGIC_LO && buffer[next + 1] == MAGIC_HI) {
+                this.start = next;
+                this.skipping = false;
+            } else {
+                // the size may be wrong, so the next packet could start inside this one
+                this.skipping = false;
+                this.skip(1);
+            }
+        }
+    }
+
+    /**
+     * Check the checksum of the packet at the start of the buffer, counting and reporting errors.
+     * @param size The payload size of the packet.
+     * @return True if the checksum matches.
+     */
+    private boolean verify(int size) {
+        byte[] buffer = this.buffer;
+        int checksum = 0;
+        for (int i = this.start + 2, e = this.start + HEADER_SIZE + size; i < e; i++) {
+            checksum += buffer[i] & 0xff;
+        }
+        int trailer = this.start + HEADER_SIZE + size;
+        int expected = (buffer[trailer] & 0xff) | ((buffer[trailer + 1] & 0xff) << 8);
+        if ((checksum & 0xffff) == expected) {
+            return true;
+        }
+        this.droppedPackets++;
+        Metrics.getInstance().increment(Metrics.Counter.CHECKSUM_ERRORS);
+        // if the emulator reported the error, the packet is simply dropped
+        if ((buffer[trailer + 3] & 1) == 0) {
+            this.listener.onError("checksum error but emulator did not report error - unreliable connection?");
+        }
+        return false;
+    }
+
+    /**
+     * Skip bytes that are not part of a packet, reporting the first skip since the last packet.
+     * @param count The number of bytes to skip.
+     */
+    private void skip(int count) {
+        this.start += count;
+        this.skippedBytes += count;
+        Metrics.getInstance().add(Metrics.Counter.BYTES_SKIPPED, count);
+        if (!this.skipping) {
+            this.skipping = true;
+            Metrics.getInstance().increment(Metrics.Counter.STREAM_ERRORS);
+            this.listener.onError("magic data missing - unreliable connection?");
+        }
+    }
+
+    /**
+     * Get the largest payload that a command can have.
+     * @param command The command.
+     * @return The largest payload size, or -1 if the command is not known.
+     */
+    private static int getMaxPayload(int command) {
+        switch (command) {
+            case COMMAND_FILL:
+                return MAX_PAYLOAD;
+            case COMMAND_PRINT:
+                return PRINT_SIZE;
+            case COMMAND_INIT:
+            case COMMAND_BREAK:
+            case COMMAND_STATUS:
+                return 0;
+            default:
+                return -1;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates the packets that make a Game Boy Printer print tile data.
+ */
+public class GbpPacketWriter {
+    /** The most tile data that a single fill packet carries, two rows of tiles. */
+    public static final int FILL_BYTES = GbpPrint.TILE_ROW_BYTES * 2;
+    /** The number of fill packets that fit in the printer's memory at once. */
+    public static final int MAX_FILLS = 9;
+    /** The exposure used by games that do not let the player choose, from 0 to 0x7f. */
+    public static final int DEFAULT_EXPOSURE = 0x40;
+    /** The number of bytes that a packet adds to its payload. */
+    private static final int PACKET_OVERHEAD = 10;
+
+    /**
+     * Create a packet. The two bytes after the checksum are sent as 0, and replaced by the printer's
+     * replies on the wire.
+     * @param command     The command of the packet.
+     * @param compression The compression flag of the packet.
+     * @param payload     The buffer containing the payload.
+     * @param offset      The offset of the payload in the buffer.
+     * @param length      The size of the payload.
+     * @return The packet.
+     */
+    public static @NonNull byte[] createPacket(int command, int compression, @NonNull byte[] payload, int offset, int length) {
+        if (length > 0xffff) {
+            throw new IllegalArgumentException("payload too large");
+        }
+        byte[] packet = new byte[PACKET_OVERHEAD + length];
+        packet[0] = (byte) 0x88;
+        packet[1] = 0x33;
+        packet[2] = (byte) command;
+        packet[3] = (byte) compression;
+        packet[4] = (byte) length;
+        packet[5] = (byte) (length >> 8);
+        System.arraycopy(payload, offset, packet, 6, length);
+        int checksum = 0;
+        for (int i = 2; i < 6 + length; i++) {
+            checksum += packet[i] & 0xff;
+        }
+        packet[6 + length] = (byte) checksum;
+        packet[7 + length] = (byte) (checksum >> 8);
+        return packet;
+    }
+
+    /**
+     * Create a packet with no payload.
+     * @param command The command of the packet.
+     * @return The packet.
+     */
+    public static @NonNull byte[] createPacket(int command) {
+        return createPacket(command, 0, new byte[0], 0, 0);
+    }
+
+    /**
+     * Create a fill packet.
+     * @param tiles    The buffer containing the tile data.
+     * @param offset   The offset of the tile data in the buffer.
+     * @param length   The number of bytes of tile data, at most {@link #FILL_BYTES}.
+     * @param compress True to compress the tile data, if that makes it smaller.
+     * @return The packet.
+     */
+    public static @NonNull byte[] createFill(@NonNull byte[] tiles, int offset, int length, boolean compress) {
+        if (compress) {
+            byte[] packed = new byte[GbpRle.getMaxEncodedLength(length)];
+            int packedLength = GbpRle.encode(tiles, offset, length, packed, 0);
+            if (packedLength < length) {
+                return createPacket(GbpPacketParser.COMMAND_FILL, 1, packed, 0, packedLength);
+            }
+        }
+        return createPacket(GbpPacketParser.COMMAND_FILL, 0, tiles, offset, length);
+    }
+
+    /**
+     * Create the packets that print tile data. Data that does not fit in the printer's memory is
+     * printed as several jobs, with the margin before only on the first and the margin after only on
+     * the last, like games that print long images.
+     * @param tiles    The tile data, made up of complete rows of tiles.
+     * @param margins  The margins byte: the high nibble is the feed before, the low nibble after.
+     * @param exposure The exposure, from 0 to 0x7f.
+     * @param compress True to compress the tile data where that makes it smaller.
+     * @return The packets, in the order they are sent.
+     */
+    public static @NonNull List<byte[]> createPrint(@NonNull byte[] tiles, int margins, int exposure, boolean compress) {
+        if (tiles.length == 0 || tiles.length % GbpPrint.TILE_ROW_BYTES != 0) {
+            throw new IllegalArgumentException("tile data must be complete rows of tiles");
+        }
+        if (exposure < 0 || exposure > 0x7f) {
+            throw new IllegalArgumentException("invalid exposure " + exposure);
+        }
+        List<byte[]> packets = new ArrayList<>();
+        int jobBytes = FILL_BYTES * MAX_FILLS;
+        for (int start = 0; start < tiles.length; start += jobBytes) {
+            int end = Math.min(tiles.length, start + jobBytes);
+            packets.add(createPacket(GbpPacketParser.COMMAND_INIT));
+            for (int offset = start; offset < end; offset += FILL_BYTES) {
+                packets.add(createFill(tiles, offset, Math.min(FILL_BYTES, end - offset), compress));
+            }
+            // an empty fill packet marks the end of the data
+            packets.add(createPacket(GbpPacketParser.COMMAND_FILL));
+            int jobMargins = (start == 0 ? margins & 0xf0 : 0) | (end == tiles.length ? margins & 0x0f : 0);
+            byte[] print = { 1, (byte) jobMargins, (byte) PhotoConverter.PALETTE, (byte) exposure };
+            packets.add(createPacket(GbpPacketParser.COMMAND_PRINT, 0, print, 0, print.length));
+            packets.add(createPacket(GbpPacketParser.COMMAND_STATUS));
+        }
+        return packets;
+    }
+}
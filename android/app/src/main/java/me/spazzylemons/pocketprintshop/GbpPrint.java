@@ -0,0 +1,137 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A completed print, made up of one or more bands of tile data.
+ */
+public class GbpPrint {
+    /** The width of a print in pixels. */
+    public static final int WIDTH = 160;
+    /** The number of bytes of 2bpp tile data in a single row of tiles. */
+    public static final int TILE_ROW_BYTES = (WIDTH / 8) * 16;
+
+    /**
+     * A part of the print, created by a single print command.
+     */
+    public static class Band {
+        /** The buffer containing the tile data. It may be shared with other bands. */
+        public final @NonNull byte[] tiles;
+        /** The offset of the tile data in the buffer. */
+        public final int offset;
+        /** The number of bytes of tile data. */
+        public final int length;
+        /** The margins byte from the print command. */
+        public final int margins;
+        /** The palette byte from the print command. */
+        public final int palette;
+
+        /**
+         * Create a new band.
+         * @param tiles   The buffer containing the tile data. It must not be modified afterwards.
+         * @param offset  The offset of the tile data in the buffer.
+         * @param length  The number of bytes of tile data.
+         * @param margins The margins byte from the print command.
+         * @param palette The palette byte from the print command.
+         */
+        public Band(@NonNull byte[] tiles, int offset, int length, int margins, int palette) {
+            this.tiles = tiles;
+            this.offset = offset;
+            this.length = length;
+            this.margins = margins;
+            this.palette = palette;
+        }
+
+        /**
+         * @return The number of complete rows of tiles in this band.
+         */
+        public int getTileRows() {
+            return this.length / TILE_ROW_BYTES;
+        }
+    }
+
+    /** The bands that make up this print. */
+    private final @NonNull List<Band> bands;
+
+    /**
+     * Create a new print.
+     * @param bands The bands that make up this print.
+     */
+    public GbpPrint(@NonNull List<Band> bands) {
+        this.bands = Collections.unmodifiableList(bands);
+    }
+
+    /**
+     * @return The bands that make up this print.
+     */
+    public @NonNull List<Band> getBands() {
+        return this.bands;
+    }
+
+    /**
+     * @return The number of complete rows of tiles in this print.
+     */
+    public int getTileRows() {
+        int rows = 0;
+        for (Band band : this.bands) {
+            rows += band.getTileRows();
+        }
+        return rows;
+    }
+
+    /**
+     * @return The height of this print in pixels.
+     */
+    public int getHeight() {
+        return this.getTileRows() * 8;
+    }
+
+    /**
+     * @return The tile data of all bands, concatenated and trimmed to complete rows of tiles.
+     */
+    public @NonNull byte[] getTiles() {
+        byte[] result = new byte[this.getTileRows() * TILE_ROW_BYTES];
+        int offset = 0;
+        for (Band band : this.bands) {
+            int length = band.getTileRows() * TILE_ROW_BYTES;
+            System.arraycopy(band.tiles, band.offset, result, offset, length);
+            offset += length;
+        }
+        return result;
+    }
+
+    /**
+     * @return The palette byte for each row of tiles in the print.
+     */
+    public @NonNull byte[] getPalettes() {
+        byte[] result = new byte[this.getTileRows()];
+        int row = 0;
+        for (Band band : this.bands) {
+            for (int k = band.getTileRows(); k > 0; k--) {
+                result[row++] = (byte) band.palette;
+            }
+        }
+        return result;
+    }
+}
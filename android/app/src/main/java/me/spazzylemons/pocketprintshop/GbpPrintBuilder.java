@@ -0,0 +1,161 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collects parsed packets into a print.
+ */
+public class GbpPrintBuilder implements GbpPacketParser.Listener {
+    /** The initial size of the vram, enough for a full camera picture. */
+    private static final int INITIAL_CAPACITY = GbpPrint.TILE_ROW_BYTES * 18;
+
+    /**
+     * Receives each band as soon as its print command is parsed.
+     */
+    public interface BandListener {
+        /**
+         * Called when a band is added to the current print.
+         * @param band The band that was added.
+         */
+        void onBand(@NonNull GbpPrint.Band band);
+    }
+
+    /** The listener that receives bands, or null if none. */
+    private @Nullable BandListener bandListener = null;
+    /**
+     * The tile data collected from the game. Data is only ever appended, so that bands can refer to
+     * it without copying. The buffer is replaced when it grows, and when a print is finished.
+     */
+    private @NonNull byte[] vram = new byte[INITIAL_CAPACITY];
+    /** The offset of the tile data collected since the last init command. */
+    private int vramStart = 0;
+    /** The end of the tile data collected. */
+    private int vramLength = 0;
+    /** The bands to stitch together. */
+    private @NonNull List<GbpPrint.Band> bands = new ArrayList<>();
+
+    @Override
+    public void onPacket(int command, int compression, @NonNull byte[] payload, int size) {
+        switch (command) {
+            case GbpPacketParser.COMMAND_INIT:
+                // initialize the vram, keeping the data that earlier bands refer to
+                this.vramStart = this.vramLength;
+                break;
+            case GbpPacketParser.COMMAND_PRINT:
+                // add part of the image
+                GbpPrint.Band band = new GbpPrint.Band(
+                        this.vram,
+                        this.vramStart,
+                        this.vramLength - this.vramStart,
+                        size > 1 ? payload[1] & 0xff : 0,
+                        size > 2 ? payload[2] & 0xff : 0);
+                this.bands.add(band);
+                if (this.bandListener != null) {
+                    this.bandListener.onBand(band);
+                }
+                break;
+            case GbpPacketParser.COMMAND_FILL:
+                // read payload as tile data
+                if (compression != 0) {
+                    // decode RLE-compressed data straight into the vram
+                    int length = GbpRle.getDecodedLength(payload, 0, size);
+                    if (length < 0) {
+                        // the data is cut short, so drop the packet like a corrupted one
+                        break;
+                    }
+                    this.reserve(length);
+                    this.vramLength += GbpRle.decode(payload, 0, size, this.vram, this.vramLength);
+                } else {
+                    // paste data verbatim
+                    this.append(payload, 0, size);
+                }
+                break;
+            default:
+                // other packets can be ignored
+                break;
+        }
+    }
+
+    /**
+     * @param bandListener The listener that receives bands, or null if none.
+     */
+    public void setBandListener(@Nullable BandListener bandListener) {
+        this.bandListener = bandListener;
+    }
+
+    @Override
+    public void onError(@NonNull String message) {
+        // the parser only drops the corrupted packet, so the rest of the print is kept
+    }
+
+    /**
+     * Make room in the vram, growing it geometrically if needed. Bands keep referring to the old
+     * buffer, which is never modified again.
+     * @param count The number of bytes about to be appended.
+     */
+    private void reserve(int count) {
+        int required = this.vramLength + count;
+        if (required > this.vram.length) {
+            this.vram = Arrays.copyOf(this.vram, Math.max(required, this.vram.length * 2));
+        }
+    }
+
+    /**
+     * Append bytes to the vram.
+     * @param data   The buffer containing the bytes.
+     * @param offset The offset of the bytes in the buffer.
+     * @param length The number of bytes to append.
+     */
+    private void append(@NonNull byte[] data, int offset, int length) {
+        this.reserve(length);
+        System.arraycopy(data, offset, this.vram, this.vramLength, length);
+        this.vramLength += length;
+    }
+
+    /**
+     * Finish the current print and prepare for the next one.
+     * @return The print, or null if no print was made.
+     */
+    public @Nullable GbpPrint finish() {
+        GbpPrint result = null;
+        if (!this.bands.isEmpty()) {
+            result = new GbpPrint(this.bands);
+            // the print refers to the vram, so the next print needs a new one
+            this.vram = new byte[INITIAL_CAPACITY];
+        }
+        this.reset();
+        return result;
+    }
+
+    /**
+     * Discard the current print.
+     */
+    public void reset() {
+        this.vramStart = 0;
+        this.vramLength = 0;
+        this.bands = new ArrayList<>();
+    }
+}
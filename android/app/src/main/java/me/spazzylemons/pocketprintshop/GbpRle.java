@@ -0,0 +1,140 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * The run-length encoding used by the Game Boy Printer for compressed data packets. A control byte
+ * with the high bit set is followed by one byte, repeated (control & 0x7f) + 2 times. Otherwise,
+ * it is followed by control + 1 literal bytes.
+ * (based on docs at https://shonumi.github.io/articles/art2.html)
+ */
+public class GbpRle {
+    /** The longest run that a single control byte can encode. */
+    private static final int MAX_RUN = 0x7f + 2;
+    /** The most literal bytes that a single control byte can introduce. */
+    private static final int MAX_LITERAL = 0x7f + 1;
+
+    /**
+     * @param length The number of bytes to encode.
+     * @return The largest number of bytes that the encoded data can take.
+     */
+    public static int getMaxEncodedLength(int length) {
+        return length + (length + MAX_LITERAL - 1) / MAX_LITERAL;
+    }
+
+    /**
+     * Encode data.
+     * @param src       The buffer containing the data to encode.
+     * @param offset    The offset of the data in the buffer.
+     * @param length    The number of bytes to encode.
+     * @param dst       The buffer to write the encoded data to. It must have room for
+     *                  {@link #getMaxEncodedLength(int)} bytes.
+     * @param dstOffset The offset to write the encoded data at.
+     * @return The number of bytes of encoded data.
+     */
+    public static int encode(@NonNull byte[] src, int offset, int length, @NonNull byte[] dst, int dstOffset) {
+        int end = offset + length;
+        int out = dstOffset;
+        // the offset of the control byte of the current literal, or -1 if there is none
+        int literal = -1;
+        int i = offset;
+        while (i < end) {
+            byte value = src[i];
+            int run = 1;
+            while (run < MAX_RUN && i + run < end && src[i + run] == value) {
+                run++;
+            }
+            // a run of two only saves space if it does not split a literal
+            if (run >= 3 || (run == 2 && literal < 0)) {
+                dst[out++] = (byte) (0x80 | (run - 2));
+                dst[out++] = value;
+                literal = -1;
+                i += run;
+            } else {
+                if (literal < 0 || dst[literal] == MAX_LITERAL - 1) {
+                    literal = out++;
+                    dst[literal] = -1;
+                }
+                dst[literal]++;
+                dst[out++] = value;
+                i++;
+            }
+        }
+        return out - dstOffset;
+    }
+
+    /**
+     * Check encoded data and find its decoded length, without decoding it.
+     * @param src    The buffer containing the encoded data.
+     * @param offset The offset of the encoded data in the buffer.
+     * @param length The number of bytes of encoded data.
+     * @return The number of bytes of decoded data, or -1 if the data ends in the middle of a run
+     *         or of literal bytes.
+     */
+    public static int getDecodedLength(@NonNull byte[] src, int offset, int length) {
+        int end = offset + length;
+        int result = 0;
+        int i = offset;
+        while (i < end) {
+            int control = src[i++] & 0xff;
+            if ((control & 0x80) != 0) {
+                result += (control & 0x7f) + 2;
+                i++;
+            } else {
+                result += control + 1;
+                i += control + 1;
+            }
+        }
+        return i == end ? result : -1;
+    }
+
+    /**
+     * Decode data.
+     * @param src       The buffer containing the encoded data.
+     * @param offset    The offset of the encoded data in the buffer.
+     * @param length    The number of bytes of encoded data. The data must be valid, as checked by
+     *                  {@link #getDecodedLength(byte[], int, int)}.
+     * @param dst       The buffer to write the decoded data to. It must have room for the decoded length.
+     * @param dstOffset The offset to write the decoded data at.
+     * @return The number of bytes of decoded data.
+     */
+    public static int decode(@NonNull byte[] src, int offset, int length, @NonNull byte[] dst, int dstOffset) {
+        int end = offset + length;
+        int out = dstOffset;
+        int i = offset;
+        while (i < end) {
+            int control = src[i++] & 0xff;
+            if ((control & 0x80) != 0) {
+                int count = (control & 0x7f) + 2;
+                Arrays.fill(dst, out, out + count, src[i++]);
+                out += count;
+            } else {
+                int count = control + 1;
+                System.arraycopy(src, i, dst, out, count);
+                i += count;
+                out += count;
+            }
+        }
+        return out - dstOffset;
+    }
+}
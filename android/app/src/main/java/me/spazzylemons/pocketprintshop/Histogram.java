@@ -0,0 +1,144 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values, with buckets that grow exponentially so that every value is
+ * recorded with a bounded relative error. Recording is lock-free and does not allocate, so it may
+ * be done from any thread on hot paths.
+ */
+public class Histogram {
+    /** The number of bits of each value kept after the leading one bit. */
+    private static final int SUB_BUCKET_BITS = 3;
+    /** The number of buckets for each power of two. */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** The number of buckets, enough to cover every non-negative long. */
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /** The number of values recorded in each bucket. */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    /** The number of values recorded. */
+    private final AtomicLong count = new AtomicLong();
+    /** The sum of the values recorded. */
+    private final AtomicLong sum = new AtomicLong();
+    /** The largest value recorded. */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value A non-negative value.
+     * @return The index of the bucket that the value belongs to.
+     */
+    static int getBucket(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+    }
+
+    /**
+     * @param bucket The index of a bucket.
+     * @return The smallest value that belongs to the bucket.
+     */
+    static long getLowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long mantissa = SUB_BUCKETS + bucket % SUB_BUCKETS;
+        return mantissa << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Record a value.
+     * @param value The value to record. Negative values are recorded as zero.
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        this.buckets.incrementAndGet(getBucket(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        long current;
+        while (value > (current = this.max.get())) {
+            if (this.max.compareAndSet(current, value)) break;
+        }
+    }
+
+    /**
+     * @return The number of values recorded.
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * @return The sum of the values recorded.
+     */
+    public long getSum() {
+        return this.sum.get();
+    }
+
+    /**
+     * @return The largest value recorded, or 0 if none were recorded.
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * @return The mean of the values recorded, or 0 if none were recorded.
+     */
+    public double getMean() {
+        long count = this.count.get();
+        return count == 0 ? 0 : (double) this.sum.get() / count;
+    }
+
+    /**
+     * Estimate a percentile of the values recorded. The result is the upper bound of the bucket
+     * containing the percentile, so it is never less than the true value.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The estimated value, or 0 if none were recorded.
+     */
+    public long getPercentile(double percentile) {
+        long count = this.count.get();
+        if (count == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100.0) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.buckets.get(i);
+            if (seen >= target) {
+                long upper = i + 1 < BUCKETS ? getLowerBound(i + 1) - 1 : Long.MAX_VALUE;
+                return Math.min(upper, this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    /**
+     * Forget all recorded values. Values recorded concurrently may be partially kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.buckets.set(i, 0);
+        }
+        this.count.set(0);
+        this.sum.set(0);
+        this.max.set(0);
+    }
+}
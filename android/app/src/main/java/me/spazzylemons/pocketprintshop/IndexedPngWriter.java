@@ -0,0 +1,707 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes images with at most four colors as 2-bit palette-indexed PNG images.
+ */
+public class IndexedPngWriter {
+    /** Rows are stored unfiltered. */
+    public static final int FILTER_NONE = 0;
+    /** Rows are stored as the difference from the byte to the left. */
+    public static final int FILTER_SUB = 1;
+    /** Rows are stored as the difference from the byte above. */
+    public static final int FILTER_UP = 2;
+    /** Rows are stored as the difference from the average of the bytes to the left and above. */
+    public static final int FILTER_AVERAGE = 3;
+    /** Rows are stored as the difference from the Paeth predictor. */
+    public static final int FILTER_PAETH = 4;
+    /** Each row uses the filter that minimizes the sum of absolute differences. */
+    public static final int FILTER_ADAPTIVE = 5;
+
+    /** The signature at the start of every PNG file. */
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+    /** The number of bits per pixel. */
+    private static final int BIT_DEPTH = 2;
+    /** The color type for palette-indexed images. */
+    private static final int COLOR_TYPE_INDEXED = 3;
+    /** The maximum number of colors in the palette. */
+    public static final int MAX_COLORS = 1 << BIT_DEPTH;
+    /** The amount of filtered image data compressed by each task when compressing in parallel. */
+    private static final int BAND_BYTES = 128 * 1024;
+    /** The size of the deflate window, which is how much data each band uses as a dictionary. */
+    private static final int WINDOW_SIZE = 32 * 1024;
+    /** The modulus of the Adler-32 checksum. */
+    private static final int ADLER_BASE = 65521;
+
+    /** The compression level passed to the deflater. */
+    private final int level;
+    /** The strategy passed to the deflater. */
+    private final int strategy;
+    /** The filter applied to each row. */
+    private final int filter;
+
+    /**
+     * Create a new IndexedPngWriter with the default settings.
+     */
+    public IndexedPngWriter() {
+        this(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, FILTER_NONE);
+    }
+
+    /**
+     * Create a new IndexedPngWriter.
+     * @param level    The compression level passed to the deflater.
+     * @param strategy The strategy passed to the deflater.
+     * @param filter   The filter applied to each row.
+     */
+    public IndexedPngWriter(int level, int strategy, int filter) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("invalid compression level " + level);
+        }
+        if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED && strategy != Deflater.HUFFMAN_ONLY) {
+            throw new IllegalArgumentException("invalid strategy " + strategy);
+        }
+        if (filter < FILTER_NONE || filter > FILTER_ADAPTIVE) {
+            throw new IllegalArgumentException("invalid filter " + filter);
+        }
+        this.level = level;
+        this.strategy = strategy;
+        this.filter = filter;
+    }
+
+    /**
+     * Encode an image.
+     * @param indices The palette index of each pixel, in rows from top to bottom.
+     * @param width   The width of the image in pixels, before scaling.
+     * @param height  The height of the image in pixels, before scaling.
+     * @param palette The ARGB colors of the palette. The alpha channel is ignored.
+     * @param scale   The factor to scale the image by.
+     * @return The PNG data.
+     */
+    public @NonNull byte[] encode(@NonNull byte[] indices, int width, int height, @NonNull int[] palette, int scale) {
+        if (height <= 0) {
+            throw new IllegalArgumentException("invalid dimensions");
+        }
+        Session session = this.begin(width, palette, scale);
+        session.appendRows(indices, 0, height);
+        return session.finish();
+    }
+
+    /**
+     * Encode an image, compressing bands of rows in parallel. Each band is deflated separately,
+     * using the end of the band before it as a dictionary, and the bands are joined at sync flush
+     * boundaries into a single zlib stream. Images too small to split are encoded normally.
+     * @param indices The palette index of each pixel, in rows from top to bottom.
+     * @param width   The width of the image in pixels, before scaling.
+     * @param height  The height of the image in pixels, before scaling.
+     * @param palette The ARGB colors of the palette. The alpha channel is ignored.
+     * @param scale   The factor to scale the image by.
+     * @param pool    The pool to compress the bands on.
+     * @return The PNG data.
+     */
+    public @NonNull byte[] encodeParallel(@NonNull byte[] indices, int width, int height, @NonNull int[] palette, int scale,
+                                          @NonNull ForkJoinPool pool) {
+        if (width <= 0 || height <= 0 || scale < 1) {
+            throw new IllegalArgumentException("invalid dimensions");
+        }
+        if (palette.length == 0 || palette.length > MAX_COLORS) {
+            throw new IllegalArgumentException("invalid palette size " + palette.length);
+        }
+        if (indices.length < width * height) {
+            throw new IllegalArgumentException("not enough pixels");
+        }
+        int rowBytes = getRowBytes(width * scale);
+        int rows = height * scale;
+        int bandRows = Math.max(1, BAND_BYTES / (rowBytes + 1));
+        int bandCount = (rows + bandRows - 1) / bandRows;
+        if (bandCount < 2) {
+            return this.encode(indices, width, height, palette, scale);
+        }
+        // filter the bands first, since each band needs the data before it as a dictionary
+        List<Callable<byte[]>> filterTasks = new ArrayList<>();
+        for (int i = 0; i < bandCount; i++) {
+            int start = i * bandRows;
+            int end = Math.min(rows, start + bandRows);
+            filterTasks.add(() -> this.filterBand(indices, width, scale, start, end));
+        }
+        byte[][] filtered = invokeAll(pool, filterTasks);
+        // each task checksums its own band, and the results are visible once invokeAll returns
+        long[] checksums = new long[bandCount];
+        List<Callable<byte[]>> deflateTasks = new ArrayList<>();
+        for (int i = 0; i < bandCount; i++) {
+            int index = i;
+            byte[] dictionary = i > 0 ? filtered[i - 1] : null;
+            byte[] band = filtered[i];
+            boolean last = i == bandCount - 1;
+            deflateTasks.add(() -> {
+                Adler32 checksum = new Adler32();
+                checksum.update(band, 0, band.length);
+                checksums[index] = checksum.getValue();
+                return this.deflateBand(band, dictionary, last);
+            });
+        }
+        byte[][] compressed = invokeAll(pool, deflateTasks);
+        // join the bands into a zlib stream, combining their checksums
+        ByteArrayOutputStream idat = new ByteArrayOutputStream();
+        idat.write(0x78);
+        idat.write(this.getZlibFlags());
+        long adler = 1;
+        for (int i = 0; i < bandCount; i++) {
+            idat.write(compressed[i], 0, compressed[i].length);
+            adler = combineAdler32(adler, checksums[i], filtered[i].length);
+        }
+        byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) adler);
+        idat.write(trailer, 0, trailer.length);
+        byte[] data = idat.toByteArray();
+        return assemble(width * scale, rows, palette, data, data.length);
+    }
+
+    /**
+     * Pack and filter a band of rows.
+     * @param indices The palette index of each pixel, in rows from top to bottom.
+     * @param width   The width of the image in pixels, before scaling.
+     * @param scale   The factor to scale the image by.
+     * @param start   The first row of the band, after scaling.
+     * @param end     The row after the last row of the band, after scaling.
+     * @return The filtered rows, each with its filter type byte.
+     */
+    private @NonNull byte[] filterBand(@NonNull byte[] indices, int width, int scale, int start, int end) {
+        int rowBytes = getRowBytes(width * scale);
+        byte[] previous = new byte[rowBytes];
+        byte[] current = new byte[rowBytes];
+        if (start > 0) {
+            packRow(indices, (start - 1) / scale * width, width, scale, previous);
+        }
+        byte[] out = new byte[(end - start) * (rowBytes + 1)];
+        int position = 0;
+        for (int y = start; y < end; y++) {
+            packRow(indices, y / scale * width, width, scale, current);
+            position = this.filterRow(current, previous, out, position);
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return out;
+    }
+
+    /**
+     * Compress a band as raw deflate data, ending on a byte boundary so that bands can be joined.
+     * @param band       The filtered rows of the band.
+     * @param dictionary The filtered rows of the band before, or null if this is the first band.
+     * @param last       True if this is the last band, which ends the stream.
+     * @return The compressed band.
+     */
+    private @NonNull byte[] deflateBand(@NonNull byte[] band, @Nullable byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(this.level, true);
+        try {
+            deflater.setStrategy(this.strategy);
+            if (dictionary != null) {
+                int length = Math.min(WINDOW_SIZE, dictionary.length);
+                deflater.setDictionary(dictionary, dictionary.length - length, length);
+            }
+            deflater.setInput(band);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(band.length / 4 + 64);
+            byte[] buffer = new byte[8192];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                // a sync flush ends on a byte boundary without ending the stream
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Run tasks on a pool and wait for their results.
+     * @param pool  The pool.
+     * @param tasks The tasks.
+     * @return The result of each task.
+     */
+    private static @NonNull byte[][] invokeAll(@NonNull ForkJoinPool pool, @NonNull List<Callable<byte[]>> tasks) {
+        byte[][] results = new byte[tasks.size()][];
+        List<Future<byte[]>> futures = pool.invokeAll(tasks);
+        try {
+            for (int i = 0; i < results.length; i++) {
+                results[i] = futures.get(i).get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        return results;
+    }
+
+    /**
+     * @return The second byte of the zlib header, matching what the deflater would write.
+     */
+    private int getZlibFlags() {
+        int level;
+        if (this.level == Deflater.DEFAULT_COMPRESSION || this.level == 6) {
+            level = 2;
+        } else if (this.level < 2) {
+            level = 0;
+        } else if (this.level < 6) {
+            level = 1;
+        } else {
+            level = 3;
+        }
+        int flags = level << 6;
+        return flags + 31 - (0x78 * 256 + flags) % 31;
+    }
+
+    /**
+     * Combine the Adler-32 checksums of two pieces of data, as zlib's adler32_combine does.
+     * @param first  The checksum of the first piece.
+     * @param second The checksum of the second piece.
+     * @param length The length of the second piece.
+     * @return The checksum of the pieces joined together.
+     */
+    static long combineAdler32(long first, long second, long length) {
+        long remainder = length % ADLER_BASE;
+        long sum1 = first & 0xffff;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+        sum1 += (second & 0xffff) + ADLER_BASE - 1;
+        sum2 += ((first >> 16) & 0xffff) + ((second >> 16) & 0xffff) + ADLER_BASE - remainder;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum2 >= ADLER_BASE * 2) sum2 -= ADLER_BASE * 2;
+        if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * Begin encoding an image whose height is not known yet.
+     * @param width   The width of the image in pixels, before scaling.
+     * @param palette The ARGB colors of the palette. The alpha channel is ignored.
+     * @param scale   The factor to scale the image by.
+     * @return The session to add rows to.
+     */
+    public @NonNull Session begin(int width, @NonNull int[] palette, int scale) {
+        return new Session(width, palette, scale);
+    }
+
+    /**
+     * An image being encoded a band of rows at a time. Each band is compressed as soon as it is
+     * added, so that finishing the image only needs to compress the remaining buffered data.
+     */
+    public class Session {
+        /** The width of the image in pixels, before scaling. */
+        private final int width;
+        /** The factor to scale the image by. */
+        private final int scale;
+        /** The ARGB colors of the palette. */
+        private final @NonNull int[] palette;
+        /** The compressor for the image data. */
+        private final @NonNull Deflater deflater;
+        /** The compressed image data so far. */
+        private final @NonNull ByteArrayOutputStream data = new ByteArrayOutputStream();
+        /** The buffer that compressed data is read into. */
+        private final @NonNull byte[] buffer = new byte[8192];
+        /** The packed row above the current one, or zeroes at the start of the image. */
+        private @NonNull byte[] previous;
+        /** The packed current row. */
+        private @NonNull byte[] current;
+        /** The filtered current row, with its filter type byte. */
+        private final @NonNull byte[] filtered;
+        /** The number of rows added so far, before scaling. */
+        private int height = 0;
+        /** True if the session has been finished or aborted. */
+        private boolean done = false;
+
+        /**
+         * Create a new session.
+         * @param width   The width of the image in pixels, before scaling.
+         * @param palette The ARGB colors of the palette.
+         * @param scale   The factor to scale the image by.
+         */
+        Session(int width, @NonNull int[] palette, int scale) {
+            if (width <= 0 || scale < 1) {
+                throw new IllegalArgumentException("invalid dimensions");
+            }
+            if (palette.length == 0 || palette.length > MAX_COLORS) {
+                throw new IllegalArgumentException("invalid palette size " + palette.length);
+            }
+            this.width = width;
+            this.scale = scale;
+            this.palette = palette.clone();
+            int rowBytes = getRowBytes(width * scale);
+            this.previous = new byte[rowBytes];
+            this.current = new byte[rowBytes];
+            this.filtered = new byte[rowBytes + 1];
+            this.deflater = new Deflater(IndexedPngWriter.this.level);
+            this.deflater.setStrategy(IndexedPngWriter.this.strategy);
+        }
+
+        /**
+         * @return The number of rows added so far, before scaling.
+         */
+        public int getHeight() {
+            return this.height;
+        }
+
+        /**
+         * Add rows to the image and compress them.
+         * @param indices The palette index of each pixel, in rows from top to bottom.
+         * @param offset  The offset of the first row in the indices.
+         * @param rows    The number of rows to add.
+         */
+        public void appendRows(@NonNull byte[] indices, int offset, int rows) {
+            if (this.done) {
+                throw new IllegalStateException("session is finished");
+            }
+            if (rows < 0 || offset < 0 || indices.length - offset < rows * this.width) {
+                throw new IllegalArgumentException("not enough pixels");
+            }
+            for (int y = 0; y < rows; y++) {
+                packRow(indices, offset + y * this.width, this.width, this.scale, this.current);
+                for (int k = 0; k < this.scale; k++) {
+                    IndexedPngWriter.this.filterRow(this.current, this.previous, this.filtered, 0);
+                    this.deflater.setInput(this.filtered);
+                    while (!this.deflater.needsInput()) {
+                        this.drain();
+                    }
+                    byte[] swap = this.previous;
+                    this.previous = this.current;
+                    this.current = swap;
+                    System.arraycopy(this.previous, 0, this.current, 0, this.current.length);
+                }
+            }
+            this.height += rows;
+        }
+
+        /**
+         * Finish the image.
+         * @return The PNG data.
+         */
+        public @NonNull byte[] finish() {
+            if (this.done) {
+                throw new IllegalStateException("session is finished");
+            }
+            if (this.height == 0) {
+                this.abort();
+                throw new IllegalStateException("image has no rows");
+            }
+            try {
+                this.deflater.finish();
+                while (!this.deflater.finished()) {
+                    this.drain();
+                }
+                return assemble(this.width * this.scale, this.height * this.scale, this.palette,
+                        this.data.toByteArray(), this.data.size());
+            } finally {
+                this.abort();
+            }
+        }
+
+        /**
+         * Discard the image and release the compressor.
+         */
+        public void abort() {
+            if (!this.done) {
+                this.done = true;
+                this.deflater.end();
+            }
+        }
+
+        /**
+         * Read compressed data from the compressor.
+         */
+        private void drain() {
+            int count = this.deflater.deflate(this.buffer);
+            this.data.write(this.buffer, 0, count);
+        }
+    }
+
+    /**
+     * @param width The width of the image in pixels.
+     * @return The number of bytes in a packed row, not including the filter byte.
+     */
+    static int getRowBytes(int width) {
+        return (width * BIT_DEPTH + 7) / 8;
+    }
+
+    /**
+     * Pack a row of palette indices into bytes, scaling it horizontally.
+     * @param indices The palette index of each pixel.
+     * @param offset  The offset of the row in the indices.
+     * @param width   The width of the row in pixels, before scaling.
+     * @param scale   The factor to scale the row by.
+     * @param out     The buffer to write the packed row to.
+     */
+    static void packRow(@NonNull byte[] indices, int offset, int width, int scale, @NonNull byte[] out) {
+        int value = 0;
+        int bits = 0;
+        int position = 0;
+        for (int x = 0; x < width; x++) {
+            int index = indices[offset + x] & (MAX_COLORS - 1);
+            for (int k = 0; k < scale; k++) {
+                value = (value << BIT_DEPTH) | index;
+                bits += BIT_DEPTH;
+                if (bits == 8) {
+                    out[position++] = (byte) value;
+                    value = 0;
+                    bits = 0;
+                }
+            }
+        }
+        if (bits != 0) {
+            out[position] = (byte) (value << (8 - bits));
+        }
+    }
+
+    /**
+     * Filter a row and append it, with its filter type byte, to the output.
+     * @param current  The packed row.
+     * @param previous The packed row above, or zeroes if this is the first row.
+     * @param out      The buffer to write the filtered row to.
+     * @param position The position in the buffer to write to.
+     * @return The position in the buffer after the filtered row.
+     */
+    int filterRow(@NonNull byte[] current, @NonNull byte[] previous, @NonNull byte[] out, int position) {
+        int type = this.filter;
+        if (type == FILTER_ADAPTIVE) {
+            // pick the filter with the smallest sum of absolute differences
+            long best = Long.MAX_VALUE;
+            for (int candidate = FILTER_NONE; candidate <= FILTER_PAETH; candidate++) {
+                long sum = 0;
+                for (int i = 0; i < current.length; i++) {
+                    sum += Math.abs((byte) filterByte(candidate, current, previous, i));
+                }
+                if (sum < best) {
+                    best = sum;
+                    type = candidate;
+                }
+            }
+        }
+        out[position++] = (byte) type;
+        for (int i = 0; i < current.length; i++) {
+            out[position++] = (byte) filterByte(type, current, previous, i);
+        }
+        return position;
+    }
+
+    /**
+     * Apply a filter to a single byte. For bit depths below 8, the "left" byte is the previous byte.
+     * @param type     The filter type.
+     * @param current  The packed row.
+     * @param previous The packed row above.
+     * @param i        The index of the byte in the row.
+     * @return The filtered byte.
+     */
+    private static int filterByte(int type, @NonNull byte[] current, @NonNull byte[] previous, int i) {
+        int x = current[i] & 0xff;
+        int a = i > 0 ? current[i - 1] & 0xff : 0;
+        int b = previous[i] & 0xff;
+        switch (type) {
+            case FILTER_SUB:
+                return x - a;
+            case FILTER_UP:
+                return x - b;
+            case FILTER_AVERAGE:
+                return x - ((a + b) >> 1);
+            case FILTER_PAETH: {
+                int c = i > 0 ? previous[i - 1] & 0xff : 0;
+                int p = a + b - c;
+                int pa = Math.abs(p - a);
+                int pb = Math.abs(p - b);
+                int pc = Math.abs(p - c);
+                return x - (pa <= pb && pa <= pc ? a : pb <= pc ? b : c);
+            }
+            default:
+                return x;
+        }
+    }
+
+    /**
+     * Put together a PNG file from its compressed image data.
+     * @param width   The width of the image in pixels.
+     * @param height  The height of the image in pixels.
+     * @param palette The ARGB colors of the palette.
+     * @param data    The buffer containing the zlib stream of the image data.
+     * @param length  The length of the zlib stream.
+     * @return The PNG data.
+     */
+    static @NonNull byte[] assemble(int width, int height, @NonNull int[] palette, @NonNull byte[] data, int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + 128);
+        out.write(SIGNATURE, 0, SIGNATURE.length);
+        writeHeader(out, width, height);
+        writePalette(out, palette);
+        writeChunk(out, "IDAT", data, 0, length);
+        writeChunk(out, "IEND", new byte[0], 0, 0);
+        return out.toByteArray();
+    }
+
+    /**
+     * Change the colors of an indexed PNG. Only the PLTE chunk is rewritten, and the compressed
+     * image data is copied as is, so this is much faster than encoding the image again.
+     * @param png     The indexed PNG data.
+     * @param palette The new ARGB colors of the palette. There must be at least as many colors as in
+     *                the original palette.
+     * @return The PNG data with the new palette.
+     * @throws IllegalArgumentException If the data is not an indexed PNG, or the palette is too small.
+     */
+    public static @NonNull byte[] replacePalette(@NonNull byte[] png, @NonNull int[] palette) {
+        if (palette.length > MAX_COLORS) {
+            throw new IllegalArgumentException("too many colors");
+        }
+        if (png.length < SIGNATURE.length || !Arrays.equals(Arrays.copyOf(png, SIGNATURE.length), SIGNATURE)) {
+            throw new IllegalArgumentException("not a PNG");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(png.length);
+        out.write(SIGNATURE, 0, SIGNATURE.length);
+        boolean indexed = false;
+        boolean replaced = false;
+        int offset = SIGNATURE.length;
+        while (offset < png.length) {
+            int length = offset + 8 <= png.length ? getInt(png, offset) : -1;
+            int end = offset + 12 + length;
+            if (length < 0 || end > png.length || end < offset) {
+                throw new IllegalArgumentException("truncated PNG");
+            }
+            String type = new String(png, offset + 4, 4, StandardCharsets.US_ASCII);
+            if (type.equals("IHDR") && length >= 13) {
+                indexed = png[offset + 8 + 9] == COLOR_TYPE_INDEXED;
+            }
+            if (type.equals("PLTE") && indexed) {
+                if (palette.length < length / 3) {
+                    throw new IllegalArgumentException("not enough colors");
+                }
+                writePalette(out, palette);
+                replaced = true;
+            } else {
+                out.write(png, offset, end - offset);
+            }
+            offset = end;
+        }
+        if (!replaced) {
+            throw new IllegalArgumentException("not an indexed PNG");
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Write the IHDR chunk.
+     * @param out    The stream to write to.
+     * @param width  The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     */
+    static void writeHeader(@NonNull ByteArrayOutputStream out, int width, int height) {
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = BIT_DEPTH;
+        header[9] = COLOR_TYPE_INDEXED;
+        // compression, filter and interlace methods are all 0
+        writeChunk(out, "IHDR", header, 0, header.length);
+    }
+
+    /**
+     * Write the PLTE chunk.
+     * @param out     The stream to write to.
+     * @param palette The ARGB colors of the palette.
+     */
+    static void writePalette(@NonNull ByteArrayOutputStream out, @NonNull int[] palette) {
+        byte[] entries = new byte[palette.length * 3];
+        for (int i = 0; i < palette.length; i++) {
+            entries[i * 3] = (byte) (palette[i] >> 16);
+            entries[i * 3 + 1] = (byte) (palette[i] >> 8);
+            entries[i * 3 + 2] = (byte) palette[i];
+        }
+        writeChunk(out, "PLTE", entries, 0, entries.length);
+    }
+
+    /**
+     * Write a chunk.
+     * @param out    The stream to write to.
+     * @param type   The four-character type of the chunk.
+     * @param data   The buffer containing the chunk data.
+     * @param offset The offset of the chunk data in the buffer.
+     * @param length The length of the chunk data.
+     */
+    static void writeChunk(@NonNull ByteArrayOutputStream out, @NonNull String type, @NonNull byte[] data, int offset, int length) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        byte[] word = new byte[4];
+        putInt(word, 0, length);
+        out.write(word, 0, 4);
+        out.write(typeBytes, 0, 4);
+        out.write(data, offset, length);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes, 0, 4);
+        crc.update(data, offset, length);
+        putInt(word, 0, (int) crc.getValue());
+        out.write(word, 0, 4);
+    }
+
+    /**
+     * Load a big-endian integer.
+     * @param buffer The buffer to read from.
+     * @param offset The offset to read at.
+     * @return The value.
+     */
+    static int getInt(@NonNull byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xff) << 24)
+                | ((buffer[offset + 1] & 0xff) << 16)
+                | ((buffer[offset + 2] & 0xff) << 8)
+                | (buffer[offset + 3] & 0xff);
+    }
+
+    /**
+     * Store a big-endian integer.
+     * @param buffer The buffer to write to.
+     * @param offset The offset to write at.
+     * @param value  The value to write.
+     */
+    static void putInt(@NonNull byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >> 24);
+        buffer[offset + 1] = (byte) (value >> 16);
+        buffer[offset + 2] = (byte) (value >> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
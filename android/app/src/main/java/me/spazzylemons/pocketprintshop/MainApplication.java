@@ -47,6 +47,8 @@ public class MainApplication extends Application implements ReactApplication {
             List<ReactPackage> packages = new PackageList(this).getPackages();
             packages.add(new UsbSerialPackage());
             packages.add(new PngEncoderPackage());
+            packages.add(new PrintStorePackage());
+            packages.add(new MetricsPackage());
             return packages;
         }
 
@@ -0,0 +1,202 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and histograms describing where time goes while receiving and encoding prints. There is
+ * a single set of metrics for the process, and updating them does not allocate.
+ */
+public class Metrics {
+    /**
+     * The counted events.
+     */
+    public enum Counter {
+        /** Bytes received from devices. */
+        BYTES_READ,
+        /** Chunks of data received from devices. */
+        READ_CHUNKS,
+        /** Bytes written to devices. */
+        BYTES_WRITTEN,
+        /** Writes rejected because the queue was full or the device was disconnected. */
+        WRITES_REJECTED,
+        /** Events sent over the bridge to JavaScript. */
+        EVENTS_SENT,
+        /** Packets parsed with a valid checksum. */
+        PACKETS_PARSED,
+        /** Packets dropped because of a checksum mismatch. */
+        CHECKSUM_ERRORS,
+        /** Times data that did not start a packet was found, and skipped to find the next packet. */
+        STREAM_ERRORS,
+        /** Bytes skipped while searching for the next packet. */
+        BYTES_SKIPPED,
+        /** Prints received and saved. */
+        PRINTS,
+        /** Buffers allocated because the pool had none free. */
+        POOL_MISSES,
+    }
+
+    /**
+     * The measured distributions.
+     */
+    public enum Distribution {
+        /** The size of each chunk of data received from a device. */
+        READ_CHUNK_SIZE("bytes"),
+        /** The time spent parsing each chunk of received data, including band encoding. */
+        PARSE_TIME("ns"),
+        /** The time spent decoding tile data into shades. */
+        DECODE_TIME("ns"),
+        /** The time spent compressing images into PNGs. */
+        ENCODE_TIME("ns"),
+        /** The time spent saving a finished print. */
+        SAVE_TIME("ns"),
+        /** The time spent writing each frame to a device. */
+        WRITE_TIME("ns"),
+        /** The number of writes waiting when a write is queued. */
+        WRITE_QUEUE_DEPTH("frames");
+
+        /** The unit of the values. */
+        public final @NonNull String unit;
+
+        /**
+         * @param unit The unit of the values.
+         */
+        Distribution(@NonNull String unit) {
+            this.unit = unit;
+        }
+    }
+
+    /** The metrics for the process. */
+    private static final Metrics INSTANCE = new Metrics();
+
+    /** The value of each counter, by ordinal. */
+    private final @NonNull AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+    /** The histogram of each distribution, by ordinal. */
+    private final @NonNull Histogram[] histograms = new Histogram[Distribution.values().length];
+
+    /**
+     * @return The metrics for the process.
+     */
+    public static @NonNull Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Create a new Metrics. Outside of tests, use {@link #getInstance()}.
+     */
+    Metrics() {
+        for (int i = 0; i < this.histograms.length; i++) {
+            this.histograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Increment a counter by one.
+     * @param counter The counter.
+     */
+    public void increment(@NonNull Counter counter) {
+        this.counters.incrementAndGet(counter.ordinal());
+    }
+
+    /**
+     * Add to a counter.
+     * @param counter The counter.
+     * @param amount  The amount to add.
+     */
+    public void add(@NonNull Counter counter, long amount) {
+        this.counters.addAndGet(counter.ordinal(), amount);
+    }
+
+    /**
+     * @param counter The counter.
+     * @return The value of the counter.
+     */
+    public long get(@NonNull Counter counter) {
+        return this.counters.get(counter.ordinal());
+    }
+
+    /**
+     * Record a value in a distribution.
+     * @param distribution The distribution.
+     * @param value        The value to record.
+     */
+    public void record(@NonNull Distribution distribution, long value) {
+        this.histograms[distribution.ordinal()].record(value);
+    }
+
+    /**
+     * Record the time elapsed since a start time in a distribution.
+     * @param distribution The distribution.
+     * @param start        The start time, from {@link System#nanoTime()}.
+     */
+    public void recordSince(@NonNull Distribution distribution, long start) {
+        this.record(distribution, System.nanoTime() - start);
+    }
+
+    /**
+     * @param distribution The distribution.
+     * @return The histogram of the distribution.
+     */
+    public @NonNull Histogram get(@NonNull Distribution distribution) {
+        return this.histograms[distribution.ordinal()];
+    }
+
+    /**
+     * Reset all counters and histograms.
+     */
+    public void reset() {
+        for (int i = 0; i < this.counters.length(); i++) {
+            this.counters.set(i, 0);
+        }
+        for (Histogram histogram : this.histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * @return A human-readable summary of the metrics, one per line.
+     */
+    @Override
+    public @NonNull String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Counter counter : Counter.values()) {
+            builder.append(counter.name().toLowerCase(Locale.ROOT))
+                    .append(' ')
+                    .append(this.get(counter))
+                    .append('\n');
+        }
+        for (Distribution distribution : Distribution.values()) {
+            Histogram histogram = this.get(distribution);
+            builder.append(String.format(Locale.ROOT, "%s count=%d mean=%.1f p50=%d p90=%d p99=%d max=%d %s%n",
+                    distribution.name().toLowerCase(Locale.ROOT),
+                    histogram.getCount(),
+                    histogram.getMean(),
+                    histogram.getPercentile(50),
+                    histogram.getPercentile(90),
+                    histogram.getPercentile(99),
+                    histogram.getMax(),
+                    distribution.unit));
+        }
+        return builder.toString();
+    }
+}
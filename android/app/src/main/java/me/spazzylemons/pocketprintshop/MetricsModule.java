@@ -0,0 +1,192 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A module that exposes the metrics collected while receiving and encoding prints.
+ */
+public class MetricsModule extends ReactContextBaseJavaModule {
+    /** The tag used for logging. */
+    private static final String TAG = "MetricsModule";
+    /** The name of the file that periodic dumps are written to. */
+    private static final String DUMP_FILE = "metrics.txt";
+
+    /** The metrics to expose. */
+    private final @NonNull Metrics metrics = Metrics.getInstance();
+    /** The file that periodic dumps are written to, if enabled. */
+    private final @NonNull File dumpFile;
+    /** The executor that periodic dumps run on, or null until dumps are first enabled. Guarded by this object's lock. */
+    private @Nullable ScheduledExecutorService scheduler = null;
+    /** The scheduled dumps, or null if dumps are disabled. Guarded by this object's lock. */
+    private @Nullable ScheduledFuture<?> scheduled = null;
+
+    /**
+     * Create a new MetricsModule.
+     * @param reactContext The context to connect this module to.
+     */
+    MetricsModule(@NonNull ReactApplicationContext reactContext) {
+        super(reactContext);
+        this.dumpFile = new File(reactContext.getFilesDir(), DUMP_FILE);
+    }
+
+    @Override
+    public @NonNull String getName() {
+        return "MetricsModule";
+    }
+
+    @Override
+    public void invalidate() {
+        // stop the dump thread, so that it does not outlive the React context
+        synchronized (this) {
+            if (this.scheduler != null) {
+                this.scheduler.shutdownNow();
+                this.scheduler = null;
+                this.scheduled = null;
+            }
+        }
+        super.invalidate();
+    }
+
+    /**
+     * @param name The name of an enum constant.
+     * @return The name in camel case.
+     */
+    private static @NonNull String toCamelCase(@NonNull String name) {
+        StringBuilder builder = new StringBuilder();
+        for (String word : name.toLowerCase(Locale.ROOT).split("_")) {
+            if (builder.length() == 0) {
+                builder.append(word);
+            } else if (!word.isEmpty()) {
+                builder.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Get the current metrics.
+     * @param promise Resolves to the counters and a summary of each histogram, rejects on failure.
+     */
+    @ReactMethod
+    public void getMetrics(@NonNull Promise promise) {
+        try {
+            WritableMap counters = Arguments.createMap();
+            for (Metrics.Counter counter : Metrics.Counter.values()) {
+                counters.putDouble(toCamelCase(counter.name()), this.metrics.get(counter));
+            }
+            WritableMap histograms = Arguments.createMap();
+            for (Metrics.Distribution distribution : Metrics.Distribution.values()) {
+                Histogram histogram = this.metrics.get(distribution);
+                WritableMap map = Arguments.createMap();
+                map.putString("unit", distribution.unit);
+                map.putDouble("count", histogram.getCount());
+                map.putDouble("mean", histogram.getMean());
+                map.putDouble("p50", histogram.getPercentile(50));
+                map.putDouble("p90", histogram.getPercentile(90));
+                map.putDouble("p99", histogram.getPercentile(99));
+                map.putDouble("max", histogram.getMax());
+                histograms.putMap(toCamelCase(distribution.name()), map);
+            }
+            WritableMap result = Arguments.createMap();
+            result.putMap("counters", counters);
+            result.putMap("histograms", histograms);
+            promise.resolve(result);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    /**
+     * Reset all metrics, for example at the start of a session being diagnosed.
+     */
+    @ReactMethod
+    public void resetMetrics() {
+        this.metrics.reset();
+    }
+
+    /**
+     * Periodically dump the metrics to the log, and optionally to a file in the app's files directory.
+     * @param interval The time in milliseconds between dumps, or 0 to stop dumping.
+     * @param toFile   True to also overwrite the dump file with each dump.
+     * @param promise  Resolves on success, rejects on failure.
+     */
+    @ReactMethod
+    public void setDumpInterval(int interval, boolean toFile, @NonNull Promise promise) {
+        try {
+            if (interval < 0) {
+                throw new IllegalArgumentException("interval must not be negative");
+            }
+            synchronized (this) {
+                if (this.scheduled != null) {
+                    this.scheduled.cancel(false);
+                    this.scheduled = null;
+                }
+                if (interval > 0) {
+                    if (this.scheduler == null) {
+                        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, TAG));
+                    }
+                    this.scheduled = this.scheduler.scheduleWithFixedDelay(
+                            () -> this.dump(toFile), interval, interval, TimeUnit.MILLISECONDS);
+                }
+            }
+            promise.resolve(null);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    /**
+     * Dump the metrics. Runs on the scheduler.
+     * @param toFile True to also overwrite the dump file.
+     */
+    private void dump(boolean toFile) {
+        String text = this.metrics.toString();
+        Log.i(TAG, text);
+        if (toFile) {
+            try (OutputStream out = new FileOutputStream(this.dumpFile)) {
+                out.write(text.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                Log.w(TAG, "failed to write metrics", e);
+            }
+        }
+    }
+}
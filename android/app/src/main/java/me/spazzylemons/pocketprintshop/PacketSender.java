@@ -0,0 +1,106 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.bridge.Promise;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends packets to a printer one at a time. Each packet is queued only after the one before it is
+ * written and a delay has passed, so that the printer is never sent data faster than it can take it.
+ */
+public class PacketSender implements SerialWriter.Callback {
+    /** The timeout of each write in milliseconds. */
+    private static final int WRITE_TIMEOUT = 1000;
+
+    /** The packets to send. */
+    private final @NonNull List<byte[]> packets;
+    /** The writer to send packets with. */
+    private final @NonNull SerialWriter writer;
+    /** The executor used to wait between packets. */
+    private final @NonNull ScheduledExecutorService scheduler;
+    /** The time in milliseconds to wait after most packets. */
+    private final long packetDelay;
+    /** The time in milliseconds to wait after a print command, while the printer prints. */
+    private final long printDelay;
+    /** Resolves once every packet is sent, rejects on failure. */
+    private final @NonNull Promise promise;
+    /** Sends the next packet. */
+    private final @NonNull Runnable sendTask = this::sendNext;
+    /** The index of the packet being sent. Only accessed by one thread at a time. */
+    private int index = 0;
+
+    /**
+     * Create a new PacketSender. Nothing is sent until {@link #start()} is called.
+     * @param packets     The packets to send.
+     * @param writer      The writer to send packets with.
+     * @param scheduler   The executor used to wait between packets.
+     * @param packetDelay The time in milliseconds to wait after most packets.
+     * @param printDelay  The time in milliseconds to wait after a print command.
+     * @param promise     Resolves once every packet is sent, rejects on failure.
+     */
+    public PacketSender(@NonNull List<byte[]> packets, @NonNull SerialWriter writer, @NonNull ScheduledExecutorService scheduler,
+                        long packetDelay, long printDelay, @NonNull Promise promise) {
+        this.packets = packets;
+        this.writer = writer;
+        this.scheduler = scheduler;
+        this.packetDelay = packetDelay;
+        this.printDelay = printDelay;
+        this.promise = promise;
+    }
+
+    /**
+     * Start sending packets.
+     */
+    public void start() {
+        this.sendNext();
+    }
+
+    /**
+     * Queue the next packet, or resolve if every packet is sent.
+     */
+    private void sendNext() {
+        if (this.index == this.packets.size()) {
+            this.promise.resolve(null);
+            return;
+        }
+        this.writer.submit(this.packets.get(this.index), WRITE_TIMEOUT, this);
+    }
+
+    @Override
+    public void onWritten() {
+        byte[] packet = this.packets.get(this.index++);
+        if (this.index == this.packets.size()) {
+            this.promise.resolve(null);
+            return;
+        }
+        long delay = packet[2] == GbpPacketParser.COMMAND_PRINT ? this.printDelay : this.packetDelay;
+        this.scheduler.schedule(this.sendTask, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void onError(@NonNull Exception e) {
+        this.promise.reject(e);
+    }
+}
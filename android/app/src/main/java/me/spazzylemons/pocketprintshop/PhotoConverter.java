@@ -0,0 +1,230 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Converts photos into tile data that the printer can print. All steps work on plain arrays, so that
+ * a full print is converted in a few milliseconds.
+ */
+public class PhotoConverter {
+    /** Dither with a 4x4 Bayer matrix, which gives a regular pattern that prints cleanly. */
+    public static final int DITHER_ORDERED = 0;
+    /** Dither with Floyd-Steinberg error diffusion, which keeps more detail. */
+    public static final int DITHER_FLOYD_STEINBERG = 1;
+    /** The palette byte that maps each color number to the shade with the opposite number. */
+    public static final int PALETTE = 0xe4;
+    /** The number of rows of pixels that the height is rounded up to, the height of a fill packet. */
+    public static final int ROW_ALIGNMENT = 16;
+
+    /** The thresholds of the ordered dither, from 0 to 15. */
+    private static final int[] BAYER = {
+            0, 8, 2, 10,
+            12, 4, 14, 6,
+            3, 11, 1, 9,
+            15, 7, 13, 5,
+    };
+    /** The difference in brightness between neighboring shades. */
+    private static final int SHADE_STEP = 85;
+
+    /**
+     * @param width  The width of the photo in pixels.
+     * @param height The height of the photo in pixels.
+     * @return The height of the converted image in pixels, rounded up to {@link #ROW_ALIGNMENT}.
+     */
+    public static int getScaledHeight(int width, int height) {
+        int scaled = Math.max(1, (int) ((long) height * GbpPrint.WIDTH / width));
+        return (scaled + ROW_ALIGNMENT - 1) / ROW_ALIGNMENT * ROW_ALIGNMENT;
+    }
+
+    /**
+     * Convert a photo to tile data.
+     * @param pixels The ARGB pixels of the photo. Transparent pixels are shown over white.
+     * @param width  The width of the photo in pixels.
+     * @param height The height of the photo in pixels.
+     * @param dither The dithering method, either {@link #DITHER_ORDERED} or {@link #DITHER_FLOYD_STEINBERG}.
+     * @return The tile data, {@link GbpPrint#WIDTH} pixels wide, made up of complete rows of tiles,
+     *         to be printed with {@link #PALETTE}.
+     */
+    public static @NonNull byte[] convert(@NonNull int[] pixels, int width, int height, int dither) {
+        if (width <= 0 || height <= 0 || pixels.length < width * height) {
+            throw new IllegalArgumentException("invalid dimensions");
+        }
+        int scaledHeight = getScaledHeight(width, height);
+        int[] gray = scaleToGray(pixels, width, height, scaledHeight);
+        byte[] shades = new byte[gray.length];
+        switch (dither) {
+            case DITHER_ORDERED:
+                ditherOrdered(gray, GbpPrint.WIDTH, shades);
+                break;
+            case DITHER_FLOYD_STEINBERG:
+                ditherFloydSteinberg(gray, GbpPrint.WIDTH, shades);
+                break;
+            default:
+                throw new IllegalArgumentException("invalid dither " + dither);
+        }
+        byte[] tiles = new byte[scaledHeight / 8 * GbpPrint.TILE_ROW_BYTES];
+        packTiles(shades, scaledHeight, PALETTE, tiles);
+        return tiles;
+    }
+
+    /**
+     * Scale a photo to the width of a print, averaging the pixels that fall into each output pixel,
+     * and convert it to brightness. Rows below the photo are filled with white.
+     * @param pixels       The ARGB pixels of the photo.
+     * @param width        The width of the photo in pixels.
+     * @param height       The height of the photo in pixels.
+     * @param scaledHeight The height of the output in pixels.
+     * @return The brightness of each output pixel, from 0 to 255.
+     */
+    static @NonNull int[] scaleToGray(@NonNull int[] pixels, int width, int height, int scaledHeight) {
+        int outWidth = GbpPrint.WIDTH;
+        // the height of the photo itself, without the padding
+        int photoHeight = Math.min(scaledHeight, Math.max(1, (int) ((long) height * outWidth / width)));
+        int[] result = new int[outWidth * scaledHeight];
+        int[] columnStarts = getRanges(width, outWidth);
+        int[] rowStarts = getRanges(height, photoHeight);
+        int[] sums = new int[outWidth];
+        for (int y = 0; y < photoHeight; y++) {
+            Arrays.fill(sums, 0);
+            int rowStart = rowStarts[y];
+            int rowEnd = Math.max(rowStart + 1, rowStarts[y + 1]);
+            for (int sy = rowStart; sy < rowEnd; sy++) {
+                int base = sy * width;
+                for (int x = 0; x < outWidth; x++) {
+                    int start = columnStarts[x];
+                    int end = Math.max(start + 1, columnStarts[x + 1]);
+                    int sum = 0;
+                    for (int sx = start; sx < end; sx++) {
+                        sum += getBrightness(pixels[base + sx]);
+                    }
+                    sums[x] += sum / (end - start);
+                }
+            }
+            for (int x = 0; x < outWidth; x++) {
+                result[y * outWidth + x] = sums[x] / (rowEnd - rowStart);
+            }
+        }
+        Arrays.fill(result, photoHeight * outWidth, result.length, 255);
+        return result;
+    }
+
+    /**
+     * Divide the input pixels evenly between the output pixels.
+     * @param inSize  The number of input pixels.
+     * @param outSize The number of output pixels.
+     * @return The first input pixel of each output pixel, followed by the input size. When scaling
+     *         up, an output pixel may have no input pixels, and should use the one at its start.
+     */
+    private static @NonNull int[] getRanges(int inSize, int outSize) {
+        int[] result = new int[outSize + 1];
+        for (int i = 0; i <= outSize; i++) {
+            result[i] = (int) Math.min(inSize - 1, (long) i * inSize / outSize);
+        }
+        result[outSize] = inSize;
+        return result;
+    }
+
+    /**
+     * @param argb An ARGB color.
+     * @return The brightness of the color over white, from 0 to 255.
+     */
+    private static int getBrightness(int argb) {
+        int alpha = argb >>> 24;
+        int luma = (((argb >> 16) & 0xff) * 299 + ((argb >> 8) & 0xff) * 587 + (argb & 0xff) * 114) / 1000;
+        return (luma * alpha + 255 * (255 - alpha)) / 255;
+    }
+
+    /**
+     * Reduce brightness to four shades with an ordered dither.
+     * @param gray  The brightness of each pixel, from 0 to 255.
+     * @param width The width of the image in pixels.
+     * @param out   The buffer to write shades to, where 0 is the darkest and 3 is the lightest.
+     */
+    static void ditherOrdered(@NonNull int[] gray, int width, @NonNull byte[] out) {
+        for (int i = 0; i < gray.length; i++) {
+            int x = i % width;
+            int y = i / width;
+            // spread the thresholds evenly over the step between two shades
+            int threshold = (BAYER[(y & 3) * 4 + (x & 3)] * 2 + 1) * SHADE_STEP / 32;
+            out[i] = (byte) Math.min(3, (gray[i] + threshold) / SHADE_STEP);
+        }
+    }
+
+    /**
+     * Reduce brightness to four shades with Floyd-Steinberg error diffusion.
+     * @param gray  The brightness of each pixel, from 0 to 255.
+     * @param width The width of the image in pixels.
+     * @param out   The buffer to write shades to, where 0 is the darkest and 3 is the lightest.
+     */
+    static void ditherFloydSteinberg(@NonNull int[] gray, int width, @NonNull byte[] out) {
+        int height = gray.length / width;
+        // errors are kept in sixteenths, with a pixel of padding on either side
+        int[] current = new int[width + 2];
+        int[] next = new int[width + 2];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = gray[y * width + x] + current[x + 1] / 16;
+                int shade = Math.max(0, Math.min(3, (value + SHADE_STEP / 2) / SHADE_STEP));
+                out[y * width + x] = (byte) shade;
+                int error = value - shade * SHADE_STEP;
+                current[x + 2] += error * 7;
+                next[x] += error * 3;
+                next[x + 1] += error * 5;
+                next[x + 2] += error;
+            }
+            int[] swap = current;
+            current = next;
+            next = swap;
+            Arrays.fill(next, 0);
+        }
+    }
+
+    /**
+     * Pack shades into 2bpp tile data.
+     * @param shades  The shade of each pixel, {@link GbpPrint#WIDTH} pixels wide.
+     * @param height  The height of the image in pixels, a multiple of 8.
+     * @param palette The palette byte that the tiles will be printed with.
+     * @param out     The buffer to write tile data to.
+     */
+    static void packTiles(@NonNull byte[] shades, int height, int palette, @NonNull byte[] out) {
+        int[] colors = new int[4];
+        for (int color = 0; color < 4; color++) {
+            colors[TileRenderer.getShade(palette, color)] = color;
+        }
+        for (int y = 0; y < height; y++) {
+            int base = (y / 8) * GbpPrint.TILE_ROW_BYTES + (y % 8) * 2;
+            for (int tile = 0; tile < GbpPrint.WIDTH / 8; tile++) {
+                int lo = 0;
+                int hi = 0;
+                int index = y * GbpPrint.WIDTH + tile * 8;
+                for (int px = 0; px < 8; px++) {
+                    int color = colors[shades[index + px]];
+                    lo = (lo << 1) | (color & 1);
+                    hi = (hi << 1) | (color >> 1);
+                }
+                out[base + tile * 16] = (byte) lo;
+                out[base + tile * 16 + 1] = (byte) hi;
+            }
+        }
+    }
+}
@@ -28,16 +28,49 @@ import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
 
 import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A module that exposes the native function for encoding PNG images.
+ * A module that exposes the native functions for rendering and encoding PNG images.
  */
 public class PngEncoderModule extends ReactContextBaseJavaModule {
+    /** The writer used for images with few enough colors to be indexed. */
+    private final @NonNull IndexedPngWriter writer = new IndexedPngWriter();
+    /** The images being encoded a band at a time, by session ID. */
+    private final @NonNull Map<Integer, Image> sessions = new ConcurrentHashMap<>();
+    /** The ID to give to the next session. */
+    private final @NonNull AtomicInteger nextSessionId = new AtomicInteger();
+    /** Runs encoding off the native-modules thread. */
+    private final @NonNull EncodeExecutor executor = EncodeExecutor.getInstance();
+
+    /**
+     * An image being encoded a band at a time.
+     */
+    private static class Image {
+        /** The encoding session. Locked while in use, so that aborting waits for a running job. */
+        final @NonNull IndexedPngWriter.Session session;
+        /** Keeps the work on the image in order. */
+        final @NonNull EncodeExecutor.Queue queue;
+
+        /**
+         * @param session The encoding session.
+         * @param queue   Keeps the work on the image in order.
+         */
+        Image(@NonNull IndexedPngWriter.Session session, @NonNull EncodeExecutor.Queue queue) {
+            this.session = session;
+            this.queue = queue;
+        }
+    }
+
     /**
      * Create a new PngEncoderModule.
      * @param reactContext The context to connect this module to.
@@ -60,20 +93,258 @@ public class PngEncoderModule extends ReactContextBaseJavaModule {
      */
     @ReactMethod
     public void encode(@NonNull String pixelString, int width, int height, @NonNull Promise promise) {
-        try {
+        this.executor.submit(() -> {
+            if (width <= 0 || height <= 0) {
+                throw new IllegalArgumentException("invalid dimensions");
+            }
             // decode the input into bytes
             byte[] pixelBytes = Base64.decode(pixelString, 0);
-            // pack bytes using native endian
-            IntBuffer buffer = ByteBuffer.wrap(pixelBytes).order(ByteOrder.nativeOrder()).asIntBuffer();
-            int[] pixels = new int[buffer.capacity()];
-            buffer.get(pixels);
-            // create ARGB image
-            Bitmap bitmap = Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
-            // compress to PNG
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
-            // send PNG to javascript
-            promise.resolve(Base64.encodeToString(out.toByteArray(), 0));
+            int count = width * height;
+            if (pixelBytes.length / 4 < count) {
+                throw new IllegalArgumentException("not enough pixels");
+            }
+            BufferPool pool = BufferPool.getInstance();
+            int[] pixels = pool.acquireInts(count);
+            try {
+                // pack bytes using native endian
+                ByteBuffer.wrap(pixelBytes).order(ByteOrder.nativeOrder()).asIntBuffer().get(pixels, 0, count);
+                // use an indexed image if there are few enough colors
+                long start = System.nanoTime();
+                byte[] indexed = this.encodeIndexed(pixels, width, height);
+                if (indexed != null) {
+                    Metrics.getInstance().recordSince(Metrics.Distribution.ENCODE_TIME, start);
+                    return Base64.encodeToString(indexed, 0);
+                }
+                // fill a reused ARGB image
+                Bitmap bitmap = pool.acquireBitmap(width, height);
+                try {
+                    bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+                    // compress to PNG
+                    PngOutputStream out = new PngOutputStream(count);
+                    bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+                    Metrics.getInstance().recordSince(Metrics.Distribution.ENCODE_TIME, start);
+                    // send PNG to javascript
+                    return out.toBase64();
+                } finally {
+                    pool.release(bitmap);
+                }
+            } finally {
+                pool.release(pixels);
+            }
+        }, promise);
+    }
+
+    /**
+     * Encode pixels as an indexed PNG image, if possible.
+     * @param pixels The ARGB pixels.
+     * @param width  The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     * @return The PNG data, or null if the image is translucent or has too many colors.
+     */
+    private @Nullable byte[] encodeIndexed(@NonNull int[] pixels, int width, int height) {
+        if (width <= 0 || height <= 0 || pixels.length < width * height) return null;
+        int[] palette = new int[IndexedPngWriter.MAX_COLORS];
+        int colors = 0;
+        int count = width * height;
+        BufferPool pool = BufferPool.getInstance();
+        byte[] indices = pool.acquireBytes(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                int pixel = pixels[i];
+                if ((pixel >>> 24) != 0xff) return null;
+                int index = 0;
+                while (index < colors && palette[index] != pixel) index++;
+                if (index == colors) {
+                    if (colors == palette.length) return null;
+                    palette[colors++] = pixel;
+                }
+                indices[i] = (byte) index;
+            }
+            return this.writer.encodeParallel(indices, width, height, Arrays.copyOf(palette, colors), 1, ForkJoinPool.commonPool());
+        } finally {
+            pool.release(indices);
+        }
+    }
+
+    /**
+     * Decode palette bytes sent from JavaScript.
+     * @param palettes The palette bytes.
+     * @return The palette bytes as an array.
+     */
+    private static @NonNull byte[] getPaletteBytes(@NonNull ReadableArray palettes) {
+        byte[] result = new byte[palettes.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) palettes.getInt(i);
+        }
+        return result;
+    }
+
+    /**
+     * Render tile data into shades.
+     * @param tiles    The 2bpp tile data, made up of complete rows of tiles.
+     * @param palettes The palette byte for each row of tiles.
+     * @param out      The buffer to write shades to.
+     * @return The number of rows of pixels rendered.
+     */
+    private static int renderShades(@NonNull byte[] tiles, @NonNull byte[] palettes, @NonNull byte[] out) {
+        long start = System.nanoTime();
+        int rows = TileRenderer.renderShades(tiles, palettes, out);
+        Metrics.getInstance().recordSince(Metrics.Distribution.DECODE_TIME, start);
+        return rows;
+    }
+
+    /**
+     * A stream for the output of {@link Bitmap#compress}, which can be encoded without copying.
+     */
+    private static class PngOutputStream extends ByteArrayOutputStream {
+        /**
+         * @param size The initial capacity of the stream.
+         */
+        PngOutputStream(int size) {
+            super(size);
+        }
+
+        /**
+         * @return The data written to the stream, encoded in Base64.
+         */
+        @NonNull String toBase64() {
+            return Base64.encodeToString(this.buf, 0, this.count, 0);
+        }
+    }
+
+    /**
+     * @param id The ID of the session.
+     * @return The image. If no session exists with this ID, an exception is thrown.
+     */
+    private @NonNull Image getImage(int id) {
+        Image image = this.sessions.get(id);
+        if (image == null) {
+            throw new IllegalArgumentException("session " + id + " not found");
+        }
+        return image;
+    }
+
+    /**
+     * Begin encoding a print whose height is not known yet. The width is always the width of a print.
+     * @param scale   The factor to scale the image by.
+     * @param promise Resolves with the session ID, or rejects on failure.
+     */
+    @ReactMethod
+    public void beginImage(int scale, @NonNull Promise promise) {
+        try {
+            IndexedPngWriter.Session session = this.writer.begin(GbpPrint.WIDTH, TileRenderer.DEFAULT_PALETTE, scale);
+            int id = this.nextSessionId.incrementAndGet();
+            this.sessions.put(id, new Image(session, this.executor.newQueue()));
+            promise.resolve(id);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    /**
+     * Render Game Boy tile data and compress it into an image being encoded. The work is done in
+     * the background, in the order the rows were sent.
+     * @param id       The ID of the session.
+     * @param tileData The 2bpp tile data, made up of complete rows of tiles, encoded in Base64.
+     * @param palettes The palette byte for each row of tiles.
+     * @param promise  Resolves on success, or rejects on failure or if the image was aborted.
+     */
+    @ReactMethod
+    public void appendRows(int id, @NonNull String tileData, @NonNull ReadableArray palettes, @NonNull Promise promise) {
+        try {
+            Image image = this.getImage(id);
+            byte[] paletteBytes = getPaletteBytes(palettes);
+            image.queue.submit(() -> {
+                byte[] tiles = Base64.decode(tileData, 0);
+                BufferPool pool = BufferPool.getInstance();
+                byte[] shades = pool.acquireBytes(TileRenderer.getShadesLength(tiles));
+                try {
+                    int rows = renderShades(tiles, paletteBytes, shades);
+                    long start = System.nanoTime();
+                    synchronized (image.session) {
+                        image.session.appendRows(shades, 0, rows);
+                    }
+                    Metrics.getInstance().recordSince(Metrics.Distribution.ENCODE_TIME, start);
+                    return null;
+                } finally {
+                    pool.release(shades);
+                }
+            }, promise);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    /**
+     * Finish an image being encoded, once the rows sent before have been compressed.
+     * @param id      The ID of the session.
+     * @param promise Resolves with the PNG data encoded in Base64, or rejects on failure.
+     */
+    @ReactMethod
+    public void finishImage(int id, @NonNull Promise promise) {
+        try {
+            Image image = this.sessions.remove(id);
+            if (image == null) {
+                throw new IllegalArgumentException("session " + id + " not found");
+            }
+            image.queue.submit(() -> {
+                byte[] png;
+                long start = System.nanoTime();
+                synchronized (image.session) {
+                    png = image.session.finish();
+                }
+                Metrics.getInstance().recordSince(Metrics.Distribution.ENCODE_TIME, start);
+                return Base64.encodeToString(png, 0);
+            }, promise);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    /**
+     * Discard an image being encoded. Rows waiting to be compressed are rejected. If the session
+     * does not exist, this method does nothing.
+     * @param id The ID of the session.
+     */
+    @ReactMethod
+    public void abortImage(int id) {
+        Image image = this.sessions.remove(id);
+        if (image != null) {
+            image.queue.cancel();
+            synchronized (image.session) {
+                image.session.abort();
+            }
+        }
+    }
+
+    /**
+     * Render Game Boy tile data as a PNG image.
+     * @param tileData The 2bpp tile data, made up of complete rows of tiles, encoded in Base64.
+     * @param palettes The palette byte for each row of tiles.
+     * @param scale    The factor to scale the image by.
+     * @param promise  Resolves with the PNG data encoded in Base64, or rejects on failure.
+     */
+    @ReactMethod
+    public void renderTiles(@NonNull String tileData, @NonNull ReadableArray palettes, int scale, @NonNull Promise promise) {
+        try {
+            byte[] paletteBytes = getPaletteBytes(palettes);
+            this.executor.submit(() -> {
+                // decode into shades and compress to an indexed PNG
+                byte[] tiles = Base64.decode(tileData, 0);
+                BufferPool pool = BufferPool.getInstance();
+                byte[] shades = pool.acquireBytes(TileRenderer.getShadesLength(tiles));
+                try {
+                    int height = renderShades(tiles, paletteBytes, shades);
+                    long start = System.nanoTime();
+                    byte[] png = this.writer.encodeParallel(shades, GbpPrint.WIDTH, height, TileRenderer.DEFAULT_PALETTE,
+                            scale, ForkJoinPool.commonPool());
+                    Metrics.getInstance().recordSince(Metrics.Distribution.ENCODE_TIME, start);
+                    // send PNG to javascript
+                    return Base64.encodeToString(png, 0);
+                } finally {
+                    pool.release(shades);
+                }
+            }, promise);
         } catch (Exception e) {
             promise.reject(e);
         }
@@ -0,0 +1,372 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact file of prints, kept as their raw tile data. Records are only ever appended, and are
+ * followed by an index of their offsets, so that any print can be read from the mapped file without
+ * parsing the ones before it. If the index is missing, such as after an interrupted append, the
+ * records are scanned instead.
+ * <p>
+ * All values are big-endian. The file starts with {@link #FILE_MAGIC} and a version. Each record
+ * is {@link #RECORD_MAGIC}, the timestamp, the width in pixels, the number of tile rows, the
+ * margins byte, the encoding, the length of the tile data, the palette byte of each tile row and
+ * the tile data. The index is the offset of each record, followed by the number of records, the
+ * offset of the index and {@link #INDEX_MAGIC}.
+ */
+public class PrintArchive implements Closeable {
+    /** The magic number at the start of the file, "GBPA". */
+    private static final int FILE_MAGIC = 0x47425041;
+    /** The magic number at the start of each record, "PRNT". */
+    private static final int RECORD_MAGIC = 0x50524e54;
+    /** The magic number at the end of the index, "GBPI". */
+    private static final int INDEX_MAGIC = 0x47425049;
+    /** The version of the format. */
+    private static final int VERSION = 1;
+    /** The size of the file header in bytes. */
+    private static final int FILE_HEADER_SIZE = 8;
+    /** The size of a record header in bytes, not including the palettes. */
+    private static final int RECORD_HEADER_SIZE = 22;
+    /** The size of the end of the index in bytes. */
+    private static final int INDEX_FOOTER_SIZE = 16;
+    /** The encoding of tile data stored as is. */
+    private static final int ENCODING_RAW = 0;
+    /** The encoding of tile data packed with {@link GbpRle}. */
+    private static final int ENCODING_RLE = 1;
+
+    /**
+     * A print stored in an archive.
+     */
+    public static class Record {
+        /** The time that the print was made, in milliseconds since the epoch. */
+        public final long timestamp;
+        /** The margins byte from the print command. */
+        public final int margins;
+        /** The tile data and palettes of the print. */
+        public final @NonNull PrintStore.Tiles tiles;
+
+        /**
+         * Create a new record.
+         * @param timestamp The time that the print was made, in milliseconds since the epoch.
+         * @param margins   The margins byte from the print command.
+         * @param tiles     The tile data and palettes of the print.
+         */
+        public Record(long timestamp, int margins, @NonNull PrintStore.Tiles tiles) {
+            this.timestamp = timestamp;
+            this.margins = margins;
+            this.tiles = tiles;
+        }
+    }
+
+    /**
+     * The location of the records in a file.
+     */
+    private static class Index {
+        /** The offset of each record. */
+        final @NonNull long[] offsets;
+        /** The offset just past the last record, where the next record is written. */
+        final long end;
+
+        /**
+         * Create a new index.
+         * @param offsets The offset of each record.
+         * @param end     The offset just past the last record.
+         */
+        Index(@NonNull long[] offsets, long end) {
+            this.offsets = offsets;
+            this.end = end;
+        }
+    }
+
+    /** The channel of the open file. */
+    private final @NonNull FileChannel channel;
+    /** The contents of the file. */
+    private final @NonNull MappedByteBuffer buffer;
+    /** The location of the records. */
+    private final @NonNull Index index;
+
+    /**
+     * Open an archive for reading.
+     * @param file The archive file.
+     * @throws IOException If the file cannot be read or is not an archive.
+     */
+    public PrintArchive(@NonNull File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            this.channel = raf.getChannel();
+            this.buffer = map(this.channel);
+            this.index = readIndex(this.buffer);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The number of prints in the archive.
+     */
+    public int size() {
+        return this.index.offsets.length;
+    }
+
+    /**
+     * Read a print from the archive. This method may be called from any thread.
+     * @param i The index of the print.
+     * @return The print.
+     * @throws IOException If the record is corrupted.
+     * @throws IndexOutOfBoundsException If there is no such print.
+     */
+    public @NonNull Record read(int i) throws IOException {
+        ByteBuffer view = this.buffer.duplicate();
+        view.position((int) this.index.offsets[i]);
+        return readRecord(view, true);
+    }
+
+    /**
+     * Read the timestamp of a print without decoding it.
+     * @param i The index of the print.
+     * @return The time that the print was made, in milliseconds since the epoch.
+     * @throws IndexOutOfBoundsException If there is no such print.
+     */
+    public long getTimestamp(int i) {
+        return this.buffer.getLong((int) this.index.offsets[i] + 4);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * Append prints to an archive, creating the file if it does not exist. Only the index is
+     * overwritten, so earlier records are kept even if appending is interrupted.
+     * @param file    The archive file.
+     * @param records The prints to append.
+     * @throws IOException If the file is not an archive, or if writing it fails.
+     */
+    public static void append(@NonNull File file, @NonNull List<Record> records) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            Index index;
+            if (channel.size() == 0) {
+                index = new Index(new long[0], writeFully(channel, createFileHeader(), 0));
+            } else {
+                index = readIndex(map(channel));
+            }
+            long[] offsets = Arrays.copyOf(index.offsets, index.offsets.length + records.size());
+            long end = index.end;
+            for (int i = 0; i < records.size(); i++) {
+                offsets[index.offsets.length + i] = end;
+                end = writeFully(channel, encodeRecord(records.get(i)), end);
+            }
+            end = writeFully(channel, encodeIndex(offsets, end), end);
+            channel.truncate(end);
+        }
+    }
+
+    /**
+     * Map a file into memory.
+     * @param channel The channel of the file.
+     * @return The contents of the file.
+     * @throws IOException If the file is too large or cannot be mapped.
+     */
+    private static @NonNull MappedByteBuffer map(@NonNull FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("archive too large");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    /**
+     * Find the records in an archive, from its index if it is intact, or else by scanning them.
+     * @param buffer The contents of the file.
+     * @return The location of the records.
+     * @throws IOException If the file is not an archive.
+     */
+    private static @NonNull Index readIndex(@NonNull ByteBuffer buffer) throws IOException {
+        int size = buffer.limit();
+        if (size < FILE_HEADER_SIZE || buffer.getInt(0) != FILE_MAGIC) {
+            throw new IOException("not a print archive");
+        }
+        if (buffer.getShort(4) != VERSION) {
+            throw new IOException("unsupported archive version " + buffer.getShort(4));
+        }
+        if (size >= FILE_HEADER_SIZE + INDEX_FOOTER_SIZE && buffer.getInt(size - 4) == INDEX_MAGIC) {
+            int count = buffer.getInt(size - INDEX_FOOTER_SIZE);
+            long indexOffset = buffer.getLong(size - INDEX_FOOTER_SIZE + 4);
+            if (count >= 0 && indexOffset >= FILE_HEADER_SIZE
+                    && indexOffset + (long) count * 8 + INDEX_FOOTER_SIZE == size) {
+                long[] offsets = new long[count];
+                for (int i = 0; i < count; i++) {
+                    offsets[i] = buffer.getLong((int) indexOffset + i * 8);
+                }
+                return new Index(offsets, indexOffset);
+            }
+        }
+        // the index is missing or damaged, so keep every record that is complete
+        ByteBuffer view = buffer.duplicate();
+        view.position(FILE_HEADER_SIZE);
+        long[] offsets = new long[16];
+        int count = 0;
+        while (true) {
+            int offset = view.position();
+            try {
+                readRecord(view, false);
+            } catch (IOException | RuntimeException e) {
+                return new Index(Arrays.copyOf(offsets, count), offset);
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = offset;
+        }
+    }
+
+    /**
+     * Read a record, advancing the buffer past it.
+     * @param buffer The buffer, positioned at the record.
+     * @param decode True to decode the record, or false to only skip over it.
+     * @return The record, or null if not decoded.
+     * @throws IOException If the record is corrupted.
+     * @throws java.nio.BufferUnderflowException If the record is truncated.
+     */
+    private static @Nullable Record readRecord(@NonNull ByteBuffer buffer, boolean decode) throws IOException {
+        if (buffer.getInt() != RECORD_MAGIC) {
+            throw new IOException("corrupt record");
+        }
+        long timestamp = buffer.getLong();
+        int width = buffer.getShort() & 0xffff;
+        int tileRows = buffer.getShort() & 0xffff;
+        int margins = buffer.get() & 0xff;
+        int encoding = buffer.get();
+        int length = buffer.getInt();
+        if (width != GbpPrint.WIDTH || length < 0 || length > buffer.remaining() - tileRows) {
+            throw new IOException("corrupt record");
+        }
+        if (!decode) {
+            buffer.position(buffer.position() + tileRows + length);
+            return null;
+        }
+        byte[] palettes = new byte[tileRows];
+        buffer.get(palettes);
+        byte[] tiles = new byte[tileRows * GbpPrint.TILE_ROW_BYTES];
+        if (encoding == ENCODING_RAW && length == tiles.length) {
+            buffer.get(tiles);
+        } else if (encoding == ENCODING_RLE) {
+            // the mapped file has no array, so copy the packed data out to decode it
+            byte[] packed = new byte[length];
+            buffer.get(packed);
+            if (GbpRle.getDecodedLength(packed, 0, length) != tiles.length) {
+                throw new IOException("corrupt record");
+            }
+            GbpRle.decode(packed, 0, length, tiles, 0);
+        } else {
+            throw new IOException("corrupt record");
+        }
+        return new Record(timestamp, margins, new PrintStore.Tiles(tiles, palettes));
+    }
+
+    /**
+     * @return The file header.
+     */
+    private static @NonNull ByteBuffer createFileHeader() {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(FILE_MAGIC);
+        header.putShort((short) VERSION);
+        header.putShort((short) 0);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Encode a record, packing its tile data if that makes it smaller.
+     * @param record The record to encode.
+     * @return The encoded record.
+     */
+    private static @NonNull ByteBuffer encodeRecord(@NonNull Record record) {
+        byte[] tiles = record.tiles.tiles;
+        byte[] palettes = record.tiles.palettes;
+        if (palettes.length > 0xffff) {
+            throw new IllegalArgumentException("print too tall");
+        }
+        byte[] packed = new byte[GbpRle.getMaxEncodedLength(tiles.length)];
+        int packedLength = GbpRle.encode(tiles, 0, tiles.length, packed, 0);
+        boolean rle = packedLength < tiles.length;
+        int length = rle ? packedLength : tiles.length;
+        ByteBuffer result = ByteBuffer.allocate(RECORD_HEADER_SIZE + palettes.length + length);
+        result.putInt(RECORD_MAGIC);
+        result.putLong(record.timestamp);
+        result.putShort((short) GbpPrint.WIDTH);
+        result.putShort((short) palettes.length);
+        result.put((byte) record.margins);
+        result.put((byte) (rle ? ENCODING_RLE : ENCODING_RAW));
+        result.putInt(length);
+        result.put(palettes);
+        result.put(rle ? packed : tiles, 0, length);
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Encode the index.
+     * @param offsets     The offset of each record.
+     * @param indexOffset The offset that the index is written at.
+     * @return The encoded index.
+     */
+    private static @NonNull ByteBuffer encodeIndex(@NonNull long[] offsets, long indexOffset) {
+        ByteBuffer result = ByteBuffer.allocate(offsets.length * 8 + INDEX_FOOTER_SIZE);
+        for (long offset : offsets) {
+            result.putLong(offset);
+        }
+        result.putInt(offsets.length);
+        result.putLong(indexOffset);
+        result.putInt(INDEX_MAGIC);
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Write a buffer to a channel.
+     * @param channel  The channel to write to.
+     * @param data     The data to write.
+     * @param position The position in the file to write at.
+     * @return The position just past the written data.
+     * @throws IOException If writing fails.
+     */
+    private static long writeFully(@NonNull FileChannel channel, @NonNull ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+        return position;
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns the data received from a single device into prints. Bands are compressed as soon as they
+ * are received. A print is finished as soon as the game polls the printer's status after a print
+ * command that feeds paper out, or otherwise once no data has been received for a while.
+ */
+public class PrintCapture {
+    /**
+     * Receives finished prints.
+     */
+    public interface Listener {
+        /**
+         * Called when a print is finished.
+         * @param print The print.
+         * @param png   The print, encoded as a PNG.
+         */
+        void onPrint(@NonNull GbpPrint print, @NonNull byte[] png);
+    }
+
+    /** The time in nanoseconds without data after which a print is considered finished. */
+    private static final long PRINT_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(500);
+    /** The factor that prints are scaled by when encoded. */
+    static final int PRINT_SCALE = 2;
+
+    /** Collects packets into prints. Guarded by its own lock. */
+    private final @NonNull GbpPrintBuilder printBuilder = new GbpPrintBuilder();
+    /** Parses packets from the received data. Guarded by the print builder's lock. */
+    private final @NonNull GbpPacketParser parser = new GbpPacketParser(new GbpPacketParser.Listener() {
+        @Override
+        public void onPacket(int command, int compression, @NonNull byte[] payload, int size) {
+            PrintCapture.this.onPacket(command, compression, payload, size);
+        }
+
+        @Override
+        public void onError(@NonNull String message) {
+            PrintCapture.this.printBuilder.onError(message);
+        }
+    });
+    /** Encodes prints as they are received. */
+    private final @NonNull IndexedPngWriter pngWriter;
+    /** The encoding session for the current print, or null if no band has been received. Guarded by the print builder's lock. */
+    private @Nullable IndexedPngWriter.Session pngSession = null;
+    /**
+     * True if the last print command fed paper out after printing, so the print ends at the next
+     * status inquiry. Guarded by the print builder's lock.
+     */
+    private boolean printEnding = false;
+    /** The prints finished while parsing, to be sent once the lock is released. Guarded by the print builder's lock. */
+    private final @NonNull List<Finished> finished = new ArrayList<>();
+    /** The executor used to schedule the print timeout. */
+    private final @NonNull ScheduledExecutorService scheduler;
+    /** The executor that finishes compressing prints and sends them to the listener. */
+    private final @NonNull Executor encoder;
+    /** Checks whether the print has timed out. */
+    private final @NonNull Runnable timeoutCheck = this::checkTimeout;
+    /** The time that data was last received, from {@link System#nanoTime()}. Guarded by the print builder's lock. */
+    private long lastDataTime;
+    /** True if a timeout check is scheduled. Guarded by the print builder's lock. */
+    private boolean timeoutScheduled = false;
+    /** The listener that receives finished prints. */
+    private final @NonNull Listener listener;
+
+    /**
+     * A print that was finished, and the session that encodes it.
+     */
+    private static class Finished {
+        /** The print. */
+        final @NonNull GbpPrint print;
+        /** The session that encodes the print. */
+        final @NonNull IndexedPngWriter.Session session;
+
+        /**
+         * @param print   The print.
+         * @param session The session that encodes the print.
+         */
+        Finished(@NonNull GbpPrint print, @NonNull IndexedPngWriter.Session session) {
+            this.print = print;
+            this.session = session;
+        }
+    }
+
+    /**
+     * Create a new PrintCapture.
+     * @param pngWriter The encoder used for prints.
+     * @param scheduler The executor used to schedule the print timeout.
+     * @param encoder   The executor that finishes compressing prints and sends them to the listener.
+     * @param listener  The listener that receives finished prints.
+     */
+    public PrintCapture(@NonNull IndexedPngWriter pngWriter, @NonNull ScheduledExecutorService scheduler,
+                        @NonNull Executor encoder, @NonNull Listener listener) {
+        this.pngWriter = pngWriter;
+        this.scheduler = scheduler;
+        this.encoder = encoder;
+        this.listener = listener;
+        this.printBuilder.setBandListener(this::encodeBand);
+    }
+
+    /**
+     * Parse data received from the device.
+     * @param data The received data.
+     */
+    public void feed(@NonNull byte[] data) {
+        this.feed(data, data.length);
+    }
+
+    /**
+     * Parse data received from the device.
+     * @param data   The buffer containing the received data.
+     * @param length The number of bytes received, from the start of the buffer.
+     */
+    public void feed(@NonNull byte[] data, int length) {
+        // parse the data and note the time, rather than rescheduling the timeout for every chunk
+        long start = System.nanoTime();
+        synchronized (this.printBuilder) {
+            this.parser.feed(data, 0, length);
+            this.lastDataTime = System.nanoTime();
+            if (!this.timeoutScheduled) {
+                this.timeoutScheduled = true;
+                this.scheduler.schedule(this.timeoutCheck, PRINT_TIMEOUT, TimeUnit.NANOSECONDS);
+            }
+        }
+        Metrics.getInstance().recordSince(Metrics.Distribution.PARSE_TIME, start);
+        this.sendFinished();
+    }
+
+    /**
+     * Handle a parsed packet. Called with the print builder's lock held.
+     * @param command     The command of the packet.
+     * @param compression The compression flag of the packet.
+     * @param payload     The buffer containing the payload.
+     * @param size        The size of the payload.
+     */
+    private void onPacket(int command, int compression, @NonNull byte[] payload, int size) {
+        if (command == GbpPacketParser.COMMAND_STATUS && this.printEnding) {
+            // the game is waiting for the paper to feed out, so no more bands are coming
+            this.printEnding = false;
+            this.finishLocked();
+            return;
+        }
+        this.printBuilder.onPacket(command, compression, payload, size);
+        if (command == GbpPacketParser.COMMAND_PRINT) {
+            // the low nibble of the margins is the paper fed after printing
+            this.printEnding = size > 1 && (payload[1] & 0x0f) != 0;
+        } else if (command != GbpPacketParser.COMMAND_STATUS) {
+            this.printEnding = false;
+        }
+    }
+
+    /**
+     * Compress a band of the current print as soon as it is received. Called with the print
+     * builder's lock held.
+     * @param band The band to compress.
+     */
+    private void encodeBand(@NonNull GbpPrint.Band band) {
+        if (this.pngSession == null) {
+            this.pngSession = this.pngWriter.begin(GbpPrint.WIDTH, TileRenderer.DEFAULT_PALETTE, PRINT_SCALE);
+        }
+        Metrics metrics = Metrics.getInstance();
+        BufferPool pool = BufferPool.getInstance();
+        int tileRows = band.getTileRows();
+        byte[] shades = pool.acquireBytes(GbpPrint.WIDTH * tileRows * 8);
+        try {
+            long start = System.nanoTime();
+            TileRenderer.renderShades(band.tiles, band.offset, tileRows, band.palette, shades, 0);
+            metrics.recordSince(Metrics.Distribution.DECODE_TIME, start);
+            start = System.nanoTime();
+            this.pngSession.appendRows(shades, 0, tileRows * 8);
+            metrics.recordSince(Metrics.Distribution.ENCODE_TIME, start);
+        } finally {
+            pool.release(shades);
+        }
+    }
+
+    /**
+     * Finish the current print if no data has been received for long enough, or check again later.
+     */
+    private void checkTimeout() {
+        synchronized (this.printBuilder) {
+            long remaining = this.lastDataTime + PRINT_TIMEOUT - System.nanoTime();
+            if (remaining > 0) {
+                this.scheduler.schedule(this.timeoutCheck, remaining, TimeUnit.NANOSECONDS);
+                return;
+            }
+            this.timeoutScheduled = false;
+        }
+        this.finish();
+    }
+
+    /**
+     * Finish the current print and queue it to be sent. Called with the print builder's lock held.
+     * The parser is not reset, since this is also called from inside it, where the data after the
+     * current packet may already be buffered.
+     */
+    private void finishLocked() {
+        GbpPrint print = this.printBuilder.finish();
+        this.printEnding = false;
+        IndexedPngWriter.Session session = this.pngSession;
+        this.pngSession = null;
+        if (session == null) return;
+        if (print == null || print.getHeight() == 0) {
+            session.abort();
+            return;
+        }
+        this.finished.add(new Finished(print, session));
+    }
+
+    /**
+     * Send the finished prints to the listener. Called without the print builder's lock held. The
+     * prints are compressed and saved by the encoder, so that the next print can be parsed meanwhile.
+     */
+    private void sendFinished() {
+        List<Finished> prints;
+        synchronized (this.printBuilder) {
+            if (this.finished.isEmpty()) return;
+            prints = new ArrayList<>(this.finished);
+            this.finished.clear();
+        }
+        for (Finished finished : prints) {
+            this.encoder.execute(() -> {
+                long start = System.nanoTime();
+                byte[] png = finished.session.finish();
+                Metrics.getInstance().recordSince(Metrics.Distribution.ENCODE_TIME, start);
+                this.listener.onPrint(finished.print, png);
+            });
+        }
+    }
+
+    /**
+     * Finish the current print and send it to the listener, if one was received.
+     */
+    public void finish() {
+        synchronized (this.printBuilder) {
+            this.finishLocked();
+            this.parser.reset();
+        }
+        this.sendFinished();
+    }
+
+    /**
+     * Discard the current print, if any.
+     */
+    public void discard() {
+        synchronized (this.printBuilder) {
+            this.printBuilder.reset();
+            this.parser.reset();
+            this.printEnding = false;
+            if (this.pngSession != null) {
+                this.pngSession.abort();
+                this.pngSession = null;
+            }
+            for (Finished finished : this.finished) {
+                finished.session.abort();
+            }
+            this.finished.clear();
+        }
+    }
+}
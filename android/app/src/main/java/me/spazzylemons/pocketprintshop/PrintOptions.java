@@ -0,0 +1,127 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * The options for printing an image on a connected printer.
+ */
+public class PrintOptions {
+    /** The default margins byte, a line of feed before and three after, like the camera. */
+    public static final int DEFAULT_MARGINS = 0x13;
+
+    /** The dithering method, one of the constants in {@link PhotoConverter}. */
+    public final int dither;
+    /** The margins byte: the high nibble is the feed before, the low nibble after. */
+    public final int margins;
+    /** The exposure, from 0 to 0x7f. */
+    public final int exposure;
+    /** True to compress tile data where that makes it smaller. */
+    public final boolean compress;
+    /** The time in milliseconds to wait after most packets. */
+    public final int packetDelay;
+    /** The time in milliseconds to wait after a print command, while the printer prints. */
+    public final int printDelay;
+
+    /**
+     * Create a new set of options.
+     * @param dither      The dithering method, one of the constants in {@link PhotoConverter}.
+     * @param margins     The margins byte.
+     * @param exposure    The exposure, from 0 to 0x7f.
+     * @param compress    True to compress tile data where that makes it smaller.
+     * @param packetDelay The time in milliseconds to wait after most packets.
+     * @param printDelay  The time in milliseconds to wait after a print command.
+     * @throws IllegalArgumentException If any option is out of range.
+     */
+    public PrintOptions(int dither, int margins, int exposure, boolean compress, int packetDelay, int printDelay) {
+        if (dither != PhotoConverter.DITHER_ORDERED && dither != PhotoConverter.DITHER_FLOYD_STEINBERG) {
+            throw new IllegalArgumentException("invalid dither " + dither);
+        }
+        if (margins < 0 || margins > 0xff) {
+            throw new IllegalArgumentException("invalid margins " + margins);
+        }
+        if (exposure < 0 || exposure > 0x7f) {
+            throw new IllegalArgumentException("invalid exposure " + exposure);
+        }
+        if (packetDelay < 0 || printDelay < 0) {
+            throw new IllegalArgumentException("invalid delay");
+        }
+        this.dither = dither;
+        this.margins = margins;
+        this.exposure = exposure;
+        this.compress = compress;
+        this.packetDelay = packetDelay;
+        this.printDelay = printDelay;
+    }
+
+    /**
+     * Create a set of options with the default values.
+     */
+    public PrintOptions() {
+        this(PhotoConverter.DITHER_FLOYD_STEINBERG, DEFAULT_MARGINS, GbpPacketWriter.DEFAULT_EXPOSURE, true, 20, 4000);
+    }
+
+    /**
+     * Read options sent from JavaScript. Missing options keep their default values.
+     * @param map The options, or null to use the defaults.
+     * @return The options.
+     * @throws IllegalArgumentException If any option is out of range.
+     */
+    public static @NonNull PrintOptions fromMap(@Nullable ReadableMap map) {
+        PrintOptions defaults = new PrintOptions();
+        if (map == null) return defaults;
+        int dither = defaults.dither;
+        if (map.hasKey("dither") && !map.isNull("dither")) {
+            String name = map.getString("dither");
+            if ("ordered".equals(name)) {
+                dither = PhotoConverter.DITHER_ORDERED;
+            } else if ("floydSteinberg".equals(name)) {
+                dither = PhotoConverter.DITHER_FLOYD_STEINBERG;
+            } else {
+                throw new IllegalArgumentException("invalid dither " + name);
+            }
+        }
+        boolean compress = defaults.compress;
+        if (map.hasKey("compress") && !map.isNull("compress")) {
+            compress = map.getBoolean("compress");
+        }
+        return new PrintOptions(
+                dither,
+                getInt(map, "margins", defaults.margins),
+                getInt(map, "exposure", defaults.exposure),
+                compress,
+                getInt(map, "packetDelay", defaults.packetDelay),
+                getInt(map, "printDelay", defaults.printDelay));
+    }
+
+    /**
+     * @param map          The map to read from.
+     * @param key          The key of the option.
+     * @param defaultValue The value to use if the option is missing.
+     * @return The value of the option.
+     */
+    private static int getInt(@NonNull ReadableMap map, @NonNull String key, int defaultValue) {
+        if (!map.hasKey(key) || map.isNull(key)) return defaultValue;
+        return map.getInt(key);
+    }
+}
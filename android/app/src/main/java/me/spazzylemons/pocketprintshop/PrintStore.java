@@ -0,0 +1,370 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import android.content.Context;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Persists prints to app-private storage, so that only file references need to be kept in memory.
+ * Each print is stored as its encoded PNG and its raw 2bpp tile data.
+ */
+public class PrintStore {
+    /** The extension of encoded PNG files. */
+    private static final String PNG_EXTENSION = ".png";
+    /** The extension of raw tile data files. */
+    private static final String TILES_EXTENSION = ".2bpp";
+    /** The maximum number of bytes of tile data to keep in memory. */
+    private static final int CACHE_SIZE = 4 * 1024 * 1024;
+
+    /** The store shared by all modules, or null if not created yet. */
+    private static @Nullable PrintStore instance = null;
+
+    /**
+     * A stored print.
+     */
+    public static class Entry {
+        /** The ID of the print. IDs increase in the order that prints are saved. */
+        public final @NonNull String id;
+        /** The height of the print in pixels, before scaling. */
+        public final int height;
+        /** The encoded PNG file. */
+        public final @NonNull File png;
+
+        /**
+         * Create a new entry.
+         * @param id     The ID of the print.
+         * @param height The height of the print in pixels, before scaling.
+         * @param png    The encoded PNG file.
+         */
+        public Entry(@NonNull String id, int height, @NonNull File png) {
+            this.id = id;
+            this.height = height;
+            this.png = png;
+        }
+    }
+
+    /**
+     * The raw data of a stored print.
+     */
+    public static class Tiles {
+        /** The tile data, made up of complete rows of tiles. */
+        public final @NonNull byte[] tiles;
+        /** The palette byte for each row of tiles. */
+        public final @NonNull byte[] palettes;
+
+        /**
+         * Create new tile data.
+         * @param tiles    The tile data, made up of complete rows of tiles.
+         * @param palettes The palette byte for each row of tiles.
+         */
+        public Tiles(@NonNull byte[] tiles, @NonNull byte[] palettes) {
+            this.tiles = tiles;
+            this.palettes = palettes;
+        }
+
+        /**
+         * @return The height of the print in pixels.
+         */
+        public int getHeight() {
+            return this.palettes.length * 8;
+        }
+    }
+
+    /** The directory that prints are stored in. */
+    private final @NonNull File directory;
+    /** The most recently used encoded PNGs, by print ID. */
+    private final @NonNull LruCache<String, byte[]> pngCache = new LruCache<String, byte[]>(CACHE_SIZE) {
+        @Override
+        protected int sizeOf(String key, byte[] value) {
+            return value.length;
+        }
+    };
+    /** The most recently used tile data, by print ID. */
+    private final @NonNull LruCache<String, Tiles> cache = new LruCache<String, Tiles>(CACHE_SIZE) {
+        @Override
+        protected int sizeOf(String key, Tiles value) {
+            return value.tiles.length + value.palettes.length;
+        }
+    };
+    /** The ID of the last print saved. */
+    private long lastId = 0;
+
+    /**
+     * @param context The context to store prints in.
+     * @return The store shared by all modules.
+     */
+    public static synchronized @NonNull PrintStore getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new PrintStore(new File(context.getFilesDir(), "prints"));
+        }
+        return instance;
+    }
+
+    /**
+     * Create a new PrintStore.
+     * @param directory The directory that prints are stored in.
+     */
+    public PrintStore(@NonNull File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param id The ID of the print.
+     * @return The encoded PNG file of the print.
+     */
+    public @NonNull File getPngFile(@NonNull String id) {
+        return new File(this.directory, id + PNG_EXTENSION);
+    }
+
+    /**
+     * @param id The ID of the print.
+     * @return The raw tile data file of the print.
+     */
+    private @NonNull File getTilesFile(@NonNull String id) {
+        return new File(this.directory, id + TILES_EXTENSION);
+    }
+
+    /**
+     * Save a print.
+     * @param print The print to save.
+     * @param png   The encoded PNG of the print.
+     * @return The entry for the saved print.
+     * @throws IOException If writing the print fails.
+     */
+    public @NonNull Entry save(@NonNull GbpPrint print, @NonNull byte[] png) throws IOException {
+        return this.save(new Tiles(print.getTiles(), print.getPalettes()), png);
+    }
+
+    /**
+     * Save a print from its raw data.
+     * @param tiles The tile data of the print.
+     * @param png   The encoded PNG of the print.
+     * @return The entry for the saved print.
+     * @throws IOException If writing the print fails.
+     */
+    public synchronized @NonNull Entry save(@NonNull Tiles tiles, @NonNull byte[] png) throws IOException {
+        // IDs are based on the time, but must be unique
+        long time = Math.max(System.currentTimeMillis(), this.lastId + 1);
+        return this.write(time, tiles, png);
+    }
+
+    /**
+     * Save a print under the time it was made, such as a print imported from an archive.
+     * @param timestamp The time that the print was made, in milliseconds since the epoch.
+     * @param tiles     The tile data of the print.
+     * @param png       The encoded PNG of the print.
+     * @return The entry for the saved print, or null if a print with the same ID is already stored.
+     * @throws IOException If writing the print fails.
+     */
+    public synchronized @Nullable Entry save(long timestamp, @NonNull Tiles tiles, @NonNull byte[] png) throws IOException {
+        if (this.contains(timestamp)) return null;
+        return this.write(timestamp, tiles, png);
+    }
+
+    /**
+     * @param timestamp The time that a print was made, in milliseconds since the epoch.
+     * @return True if a print with the ID of that time is stored.
+     */
+    public boolean contains(long timestamp) {
+        return this.getPngFile(Long.toString(timestamp)).isFile();
+    }
+
+    /**
+     * Write the files of a print.
+     * @param time  The ID of the print.
+     * @param tiles The tile data of the print.
+     * @param png   The encoded PNG of the print.
+     * @return The entry for the saved print.
+     * @throws IOException If writing the print fails.
+     */
+    private @NonNull Entry write(long time, @NonNull Tiles tiles, @NonNull byte[] png) throws IOException {
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("failed to create " + this.directory);
+        }
+        // later IDs must still be unique, even if this one is in the future
+        this.lastId = Math.max(this.lastId, time);
+        String id = Long.toString(time);
+        // write the tile data first, so that a listed PNG always has its tile data
+        writeAtomically(this.getTilesFile(id), null, tiles);
+        File pngFile = this.getPngFile(id);
+        writeAtomically(pngFile, png, null);
+        this.cache.put(id, tiles);
+        return new Entry(id, tiles.getHeight(), pngFile);
+    }
+
+    /**
+     * Write a file by writing a temporary file and renaming it, so that partial files are never seen.
+     * @param file  The file to write.
+     * @param data  The data to write, or null to write tile data.
+     * @param tiles The tile data to write, if data is null.
+     * @throws IOException If writing the file fails.
+     */
+    private static void writeAtomically(@NonNull File file, @Nullable byte[] data, @Nullable Tiles tiles) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            if (data != null) {
+                out.write(data);
+            } else if (tiles != null) {
+                out.writeInt(tiles.palettes.length);
+                out.write(tiles.palettes);
+                out.write(tiles.tiles);
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("failed to write " + file);
+        }
+    }
+
+    /**
+     * @return The stored prints, in the order they were saved.
+     */
+    public synchronized @NonNull List<Entry> list() {
+        List<Entry> result = new ArrayList<>();
+        String[] names = this.directory.list();
+        if (names == null) return result;
+        Arrays.sort(names, (a, b) -> Long.compare(parseId(a), parseId(b)));
+        for (String name : names) {
+            if (!name.endsWith(PNG_EXTENSION)) continue;
+            String id = name.substring(0, name.length() - PNG_EXTENSION.length());
+            try (DataInputStream in = new DataInputStream(new FileInputStream(this.getTilesFile(id)))) {
+                result.add(new Entry(id, in.readInt() * 8, this.getPngFile(id)));
+            } catch (IOException e) {
+                // skip prints that cannot be read
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param name The file name of a stored file.
+     * @return The ID the file belongs to, as a number for sorting.
+     */
+    private static long parseId(@NonNull String name) {
+        int end = name.indexOf('.');
+        try {
+            return Long.parseLong(end < 0 ? name : name.substring(0, end));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Load the raw data of a print.
+     * @param id The ID of the print.
+     * @return The tile data of the print.
+     * @throws IOException If the print does not exist or reading it fails.
+     */
+    public @NonNull Tiles loadTiles(@NonNull String id) throws IOException {
+        Tiles tiles = this.cache.get(id);
+        if (tiles != null) return tiles;
+        File file = this.getTilesFile(id);
+        if (!file.isFile()) {
+            throw new FileNotFoundException("print " + id + " not found");
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int tileRows = in.readInt();
+            byte[] palettes = new byte[tileRows];
+            in.readFully(palettes);
+            byte[] data = new byte[tileRows * GbpPrint.TILE_ROW_BYTES];
+            in.readFully(data);
+            tiles = new Tiles(data, palettes);
+        }
+        this.cache.put(id, tiles);
+        return tiles;
+    }
+
+    /**
+     * Load the encoded PNG of a print.
+     * @param id The ID of the print.
+     * @return The encoded PNG of the print.
+     * @throws IOException If the print does not exist or reading it fails.
+     */
+    public @NonNull byte[] loadPng(@NonNull String id) throws IOException {
+        byte[] png = this.pngCache.get(id);
+        if (png != null) return png;
+        File file = this.getPngFile(id);
+        if (!file.isFile()) {
+            throw new FileNotFoundException("print " + id + " not found");
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            png = new byte[(int) file.length()];
+            in.readFully(png);
+        }
+        this.pngCache.put(id, png);
+        return png;
+    }
+
+    /**
+     * Append every stored print that an archive does not already hold, creating the archive if it
+     * does not exist. Prints are matched by their IDs, which are the times they were saved. The
+     * store does not keep margins, so they are written as 0.
+     * @param file The archive file to write.
+     * @return The number of prints written.
+     * @throws IOException If the file is not an archive, or if reading a print or writing the archive fails.
+     */
+    public int exportArchive(@NonNull File file) throws IOException {
+        Set<Long> archived = new HashSet<>();
+        if (file.length() > 0) {
+            try (PrintArchive archive = new PrintArchive(file)) {
+                for (int i = 0; i < archive.size(); i++) {
+                    archived.add(archive.getTimestamp(i));
+                }
+            }
+        }
+        List<PrintArchive.Record> records = new ArrayList<>();
+        for (Entry entry : this.list()) {
+            long timestamp = parseId(entry.id);
+            if (archived.contains(timestamp)) continue;
+            records.add(new PrintArchive.Record(timestamp, 0, this.loadTiles(entry.id)));
+        }
+        PrintArchive.append(file, records);
+        return records.size();
+    }
+
+    /**
+     * Delete a print. If the print does not exist, this method does nothing.
+     * @param id The ID of the print.
+     */
+    public synchronized void remove(@NonNull String id) {
+        this.cache.remove(id);
+        this.pngCache.remove(id);
+        this.getPngFile(id).delete();
+        this.getTilesFile(id).delete();
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * A module that exposes the prints saved to storage.
+ */
+public class PrintStoreModule extends ReactContextBaseJavaModule {
+    /** The store that prints are saved to. */
+    private final @NonNull PrintStore store;
+    /** The previews of the stored prints. */
+    private final @NonNull ThumbnailCache thumbnails;
+    /** The directory that recolored prints are written to. */
+    private final @NonNull File recolorDirectory;
+    /** Encodes imported prints. */
+    private final @NonNull IndexedPngWriter pngWriter = new IndexedPngWriter();
+
+    /**
+     * Create a new PrintStoreModule.
+     * @param reactContext The context to connect this module to.
+     */
+    PrintStoreModule(@NonNull ReactApplicationContext reactContext) {
+        super(reactContext);
+        this.store = PrintStore.getInstance(reactContext);
+        this.thumbnails = ThumbnailCache.getInstance(reactContext);
+        this.recolorDirectory = new File(reactContext.getCacheDir(), "recolor");
+    }
+
+    @Override
+    public @NonNull String getName() {
+        return "PrintStoreModule";
+    }
+
+    /**
+     * Convert a stored print to the form sent to JavaScript.
+     * @param entry The stored print.
+     * @return The ID, file URI, file path and height of the print.
+     */
+    static @NonNull WritableMap toMap(@NonNull PrintStore.Entry entry) {
+        WritableMap map = Arguments.createMap();
+        map.putString("id", entry.id);
+        map.putString("uri", Uri.fromFile(entry.png).toString());
+        map.putString("path", entry.png.getPath());
+        map.putInt("height", entry.height);
+        return map;
+    }
+
+    /**
+     * List the stored prints.
+     * @param promise Resolves to the stored prints in the order they were saved, rejects on failure.
+     */
+    @ReactMethod
+    public void list(@NonNull Promise promise) {
+        try {
+            WritableArray result = Arguments.createArray();
+            for (PrintStore.Entry entry : this.store.list()) {
+                result.pushMap(toMap(entry));
+            }
+            promise.resolve(result);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    /**
+     * Append every stored print to a compact archive of their tile data, skipping those it already holds.
+     * @param path    The path of the archive file to write.
+     * @param promise Resolves to the number of prints written, rejects on failure.
+     */
+    @ReactMethod
+    public void exportArchive(@NonNull String path, @NonNull Promise promise) {
+        EncodeExecutor.getInstance().submit(() -> this.store.exportArchive(new File(path)), promise);
+    }
+
+    /**
+     * Store every print in an archive, encoding each as a PNG like a received print. Prints keep the
+     * time they were made as their ID, so prints that are already stored are skipped.
+     * @param path    The path of the archive file to read.
+     * @param promise Resolves to the newly stored prints, rejects on failure.
+     */
+    @ReactMethod
+    public void importArchive(@NonNull String path, @NonNull Promise promise) {
+        EncodeExecutor.getInstance().submit(() -> {
+            WritableArray result = Arguments.createArray();
+            try (PrintArchive archive = new PrintArchive(new File(path))) {
+                for (int i = 0; i < archive.size(); i++) {
+                    long timestamp = archive.getTimestamp(i);
+                    // check before rendering, since encoding is the slow part
+                    if (this.store.contains(timestamp)) continue;
+                    PrintStore.Tiles tiles = archive.read(i).tiles;
+                    byte[] png = this.render(tiles, TileRenderer.DEFAULT_PALETTE);
+                    PrintStore.Entry entry = this.store.save(timestamp, tiles, png);
+                    if (entry != null) {
+                        result.pushMap(toMap(entry));
+                    }
+                }
+            }
+            return result;
+        }, promise);
+    }
+
+    /**
+     * Get a stored print in different colors. The stored PNG only has its palette replaced, so this
+     * is fast enough to call for every palette the user looks at. The result is written to the cache
+     * directory, so that only its URI is sent to JavaScript, and reused for the same colors.
+     * @param id      The ID of the print.
+     * @param colors  The four RGB colors to use, from darkest to lightest.
+     * @param promise Resolves to a file URI of the recolored print, rejects on failure.
+     */
+    @ReactMethod
+    public void recolor(@NonNull String id, @NonNull ReadableArray colors, @NonNull Promise promise) {
+        EncodeExecutor.getInstance().submit(() -> {
+            if (colors.size() != IndexedPngWriter.MAX_COLORS) {
+                throw new IllegalArgumentException("expected " + IndexedPngWriter.MAX_COLORS + " colors");
+            }
+            int[] palette = new int[colors.size()];
+            for (int i = 0; i < palette.length; i++) {
+                // colors above 0x7fffffff do not fit in an int, so read them as doubles
+                palette[i] = 0xff000000 | (int) (long) colors.getDouble(i);
+            }
+            File file = this.getRecolorFile(id, palette);
+            if (!file.isFile()) {
+                byte[] png;
+                try {
+                    png = IndexedPngWriter.replacePalette(this.store.loadPng(id), palette);
+                } catch (IllegalArgumentException e) {
+                    // the stored PNG is not indexed, so render it again from the tile data
+                    png = this.render(this.store.loadTiles(id), palette);
+                }
+                ThumbnailCache.write(file, png);
+            }
+            return Uri.fromFile(file).toString();
+        }, promise);
+    }
+
+    /**
+     * @param id      The ID of the print.
+     * @param palette The ARGB colors of the print.
+     * @return The file that the print in those colors is written to. The colors are part of the
+     *         name, so that each set of colors has its own file.
+     */
+    private @NonNull File getRecolorFile(@NonNull String id, @NonNull int[] palette) {
+        StringBuilder name = new StringBuilder(id);
+        for (int color : palette) {
+            name.append('-').append(String.format(Locale.ROOT, "%06x", color & 0xffffff));
+        }
+        return new File(this.recolorDirectory, name.append(".png").toString());
+    }
+
+    /**
+     * Render a print as a PNG at the same scale as received prints.
+     * @param tiles   The tile data of the print.
+     * @param palette The ARGB colors to use, from darkest to lightest.
+     * @return The encoded PNG.
+     */
+    private @NonNull byte[] render(@NonNull PrintStore.Tiles tiles, @NonNull int[] palette) {
+        byte[] shades = TileRenderer.renderShades(tiles.tiles, tiles.palettes);
+        return this.pngWriter.encode(shades, GbpPrint.WIDTH, tiles.getHeight(), palette, PrintCapture.PRINT_SCALE);
+    }
+
+    /**
+     * Delete a stored print.
+     * @param id      The ID of the print.
+     * @param promise Resolves on success, rejects on failure.
+     */
+    @ReactMethod
+    public void remove(@NonNull String id, @NonNull Promise promise) {
+        try {
+            this.thumbnails.remove(id);
+            File[] recolored = this.recolorDirectory.listFiles((directory, name) -> name.startsWith(id + "-"));
+            if (recolored != null) {
+                for (File file : recolored) {
+                    file.delete();
+                }
+            }
+            this.store.remove(id);
+            promise.resolve(null);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    /**
+     * Get a small preview of a stored print, generating it the first time it is requested.
+     * @param id      The ID of the print.
+     * @param promise Resolves to the URI of the preview, rejects on failure.
+     */
+    @ReactMethod
+    public void getThumbnail(@NonNull String id, @NonNull Promise promise) {
+        EncodeExecutor.getInstance().submit(() -> this.thumbnails.getUri(id), promise);
+    }
+}
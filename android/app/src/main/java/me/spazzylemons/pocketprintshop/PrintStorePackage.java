@@ -0,0 +1,49 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.ReactPackage;
+import com.facebook.react.bridge.NativeModule;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.uimanager.ViewManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The package for {@link PrintStoreModule}.
+ */
+public class PrintStorePackage implements ReactPackage {
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public @NonNull List<ViewManager> createViewManagers(@NonNull ReactApplicationContext context) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public @NonNull List<NativeModule> createNativeModules(@NonNull ReactApplicationContext context) {
+        List<NativeModule> modules = new ArrayList<>();
+        modules.add(new PrintStoreModule(context));
+        return modules;
+    }
+}
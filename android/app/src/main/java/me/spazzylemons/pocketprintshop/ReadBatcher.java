@@ -0,0 +1,220 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces incoming data into larger chunks, so that fewer events need to be sent to JavaScript.
+ * Data is flushed when the configured size is reached, or when the configured interval has passed
+ * since the first unflushed data arrived. The sink is called without the batch locked, so that
+ * data can keep being appended while a flush is sent.
+ */
+public class ReadBatcher {
+    /**
+     * Receives the coalesced data.
+     */
+    public interface Sink {
+        /**
+         * Called when data is flushed.
+         * @param data   The buffer containing the data. Only valid until this method returns.
+         * @param length The number of bytes of data.
+         */
+        void onFlush(@NonNull byte[] data, int length);
+    }
+
+    /** The sink that receives the coalesced data. */
+    private final @NonNull Sink sink;
+    /** The executor used to schedule flushes. */
+    private final @NonNull ScheduledExecutorService scheduler;
+    /** Flushes the pending data. */
+    private final @NonNull Runnable flushTask = this::flush;
+    /**
+     * Held while data is passed to the sink, so that flushes arrive in order and the scratch array
+     * is not replaced while the sink reads it. Always taken before this object's lock.
+     */
+    private final @NonNull Object sinkLock = new Object();
+    /** The pending data. Taken from the buffer pool, so it may be larger than the batch size. */
+    private @NonNull ByteBuffer buffer;
+    /**
+     * The array that pending data is copied into when flushing. Taken from the buffer pool. Only
+     * replaced with both locks held.
+     */
+    private @NonNull byte[] scratch;
+    /** The number of bytes after which data is flushed immediately. */
+    private int maxBytes;
+    /** True once the buffers have been returned to the pool. */
+    private boolean closed = false;
+    /** The maximum time in milliseconds to hold data, or 0 to flush immediately. */
+    private long interval;
+    /** The scheduled flush, or null if none is scheduled. */
+    private @Nullable ScheduledFuture<?> scheduled = null;
+
+    /**
+     * Create a new ReadBatcher.
+     * @param sink      The sink that receives the coalesced data.
+     * @param scheduler The executor used to schedule flushes.
+     * @param interval  The maximum time in milliseconds to hold data, or 0 to flush immediately.
+     * @param maxBytes  The number of bytes after which data is flushed immediately.
+     */
+    public ReadBatcher(@NonNull Sink sink, @NonNull ScheduledExecutorService scheduler, long interval, int maxBytes) {
+        this.sink = sink;
+        this.scheduler = scheduler;
+        this.interval = interval;
+        this.maxBytes = maxBytes;
+        this.buffer = BufferPool.getInstance().acquireDirect(maxBytes);
+        this.buffer.limit(maxBytes);
+        this.scratch = BufferPool.getInstance().acquireBytes(maxBytes);
+    }
+
+    /**
+     * Check that batching parameters are valid.
+     * @param interval The maximum time in milliseconds to hold data, or 0 to flush immediately.
+     * @param maxBytes The number of bytes after which data is flushed immediately.
+     * @throws IllegalArgumentException If the parameters are invalid.
+     */
+    public static void checkParameters(long interval, int maxBytes) {
+        if (interval < 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("invalid batching parameters");
+        }
+    }
+
+    /**
+     * Change the batching parameters. Any pending data is flushed first.
+     * @param interval The maximum time in milliseconds to hold data, or 0 to flush immediately.
+     * @param maxBytes The number of bytes after which data is flushed immediately.
+     */
+    public void configure(long interval, int maxBytes) {
+        checkParameters(interval, maxBytes);
+        synchronized (this.sinkLock) {
+            this.flush();
+            synchronized (this) {
+                this.interval = interval;
+                if (this.closed) return;
+                if (maxBytes != this.maxBytes) {
+                    // flushed above, so the buffer holds no data
+                    BufferPool pool = BufferPool.getInstance();
+                    pool.release(this.buffer);
+                    pool.release(this.scratch);
+                    this.buffer = pool.acquireDirect(maxBytes);
+                    this.scratch = pool.acquireBytes(maxBytes);
+                }
+                this.maxBytes = maxBytes;
+                this.buffer.limit(maxBytes);
+            }
+        }
+    }
+
+    /**
+     * Add data to the batch.
+     * @param data The data to add.
+     */
+    public void append(@NonNull byte[] data) {
+        this.append(data, data.length);
+    }
+
+    /**
+     * Add data to the batch.
+     * @param data   The buffer containing the data to add.
+     * @param length The number of bytes to add from the start of the buffer.
+     */
+    public void append(@NonNull byte[] data, int length) {
+        int offset = 0;
+        while (true) {
+            synchronized (this) {
+                if (this.closed) return;
+                int count = Math.min(this.buffer.remaining(), length - offset);
+                this.buffer.put(data, offset, count);
+                offset += count;
+                if (this.buffer.hasRemaining()) {
+                    // all of the data fits in the batch
+                    if (this.buffer.position() == 0) return;
+                    if (this.interval != 0) {
+                        if (this.scheduled == null) {
+                            this.scheduled = this.scheduler.schedule(this.flushTask, this.interval, TimeUnit.MILLISECONDS);
+                        }
+                        return;
+                    }
+                }
+            }
+            // the batch is full or should not be held, so flush it without holding the lock
+            this.flush();
+            if (offset == length) return;
+        }
+    }
+
+    /**
+     * Send any pending data to the sink.
+     */
+    public void flush() {
+        synchronized (this.sinkLock) {
+            int length;
+            synchronized (this) {
+                if (this.scheduled != null) {
+                    this.scheduled.cancel(false);
+                    this.scheduled = null;
+                }
+                if (this.closed) return;
+                length = this.buffer.position();
+                if (length == 0) return;
+                this.buffer.flip();
+                this.buffer.get(this.scratch, 0, length);
+                this.buffer.clear();
+                this.buffer.limit(this.maxBytes);
+            }
+            this.sink.onFlush(this.scratch, length);
+        }
+    }
+
+    /**
+     * Discard any pending data.
+     */
+    public synchronized void clear() {
+        if (this.scheduled != null) {
+            this.scheduled.cancel(false);
+            this.scheduled = null;
+        }
+        if (this.closed) return;
+        this.buffer.clear();
+        this.buffer.limit(this.maxBytes);
+    }
+
+    /**
+     * Discard any pending data and return the buffers to the pool. Data appended afterwards is ignored.
+     */
+    public void close() {
+        // wait for any flush in progress, which may still be reading the scratch array
+        synchronized (this.sinkLock) {
+            synchronized (this) {
+                if (this.closed) return;
+                this.clear();
+                this.closed = true;
+                BufferPool pool = BufferPool.getInstance();
+                pool.release(this.buffer);
+                pool.release(this.scratch);
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.bridge.Promise;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Writes frames to a serial port on a dedicated thread, so that slow writes do not block the
+ * caller. The number of pending frames is bounded, and frames that do not fit are rejected.
+ */
+public class SerialWriter implements Closeable {
+    /**
+     * Receives the result of a write.
+     */
+    public interface Callback {
+        /**
+         * Called on the writer thread once the data is written.
+         */
+        void onWritten();
+
+        /**
+         * Called when the data could not be written.
+         * @param e The reason that the write failed.
+         */
+        void onError(@NonNull Exception e);
+    }
+
+    /**
+     * A block of data waiting to be written.
+     */
+    private static class Frame {
+        /** The data to write. */
+        final @NonNull byte[] data;
+        /** The timeout of the write in milliseconds. 0 means no timeout. */
+        final int timeout;
+        /** Notified when the data is written, or on failure. */
+        final @NonNull Callback callback;
+
+        /**
+         * Create a new frame.
+         * @param data    The data to write.
+         * @param timeout The timeout of the write in milliseconds. 0 means no timeout.
+         * @param callback Notified when the data is written, or on failure.
+         */
+        Frame(@NonNull byte[] data, int timeout, @NonNull Callback callback) {
+            this.data = data;
+            this.timeout = timeout;
+            this.callback = callback;
+        }
+    }
+
+    /** The port to write to. */
+    private final @NonNull UsbSerialPort port;
+    /** The frames waiting to be written. */
+    private final @NonNull ArrayBlockingQueue<Frame> queue;
+    /** The thread that writes the frames. */
+    private final @NonNull Thread thread;
+    /** True once the writer has been closed. */
+    private volatile boolean closed = false;
+
+    /**
+     * Create a new SerialWriter and start its thread.
+     * @param port     The port to write to.
+     * @param capacity The maximum number of frames waiting to be written.
+     */
+    public SerialWriter(@NonNull UsbSerialPort port, int capacity) {
+        this.port = port;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.thread = new Thread(this::run, "SerialWriter");
+        this.thread.start();
+    }
+
+    /**
+     * Queue data to be written. The promise is always settled, even if the writer is closed first.
+     * @param data    The data to write.
+     * @param timeout The timeout of the write in milliseconds. 0 means no timeout.
+     * @param promise Resolves when the data is written, rejects on failure or if the queue is full.
+     */
+    public void submit(@NonNull byte[] data, int timeout, @NonNull Promise promise) {
+        this.submit(data, timeout, new Callback() {
+            @Override
+            public void onWritten() {
+                promise.resolve(null);
+            }
+
+            @Override
+            public void onError(@NonNull Exception e) {
+                promise.reject(e);
+            }
+        });
+    }
+
+    /**
+     * Queue data to be written. The callback is always called, even if the writer is closed first.
+     * @param data     The data to write.
+     * @param timeout  The timeout of the write in milliseconds. 0 means no timeout.
+     * @param callback Notified when the data is written, on failure, or if the queue is full.
+     */
+    public void submit(@NonNull byte[] data, int timeout, @NonNull Callback callback) {
+        Metrics metrics = Metrics.getInstance();
+        if (this.closed) {
+            metrics.increment(Metrics.Counter.WRITES_REJECTED);
+            callback.onError(new IOException("not connected"));
+            return;
+        }
+        metrics.record(Metrics.Distribution.WRITE_QUEUE_DEPTH, this.queue.size());
+        Frame frame = new Frame(data, timeout, callback);
+        if (!this.queue.offer(frame)) {
+            metrics.increment(Metrics.Counter.WRITES_REJECTED);
+            callback.onError(new IllegalStateException("write queue full"));
+            return;
+        }
+        // if closed while queueing, the frame may have been missed by the drain
+        if (this.closed && this.queue.remove(frame)) {
+            metrics.increment(Metrics.Counter.WRITES_REJECTED);
+            callback.onError(new IOException("not connected"));
+        }
+    }
+
+    /**
+     * @return The number of frames waiting to be written.
+     */
+    public int getQueueDepth() {
+        return this.queue.size();
+    }
+
+    /**
+     * @return The maximum number of frames waiting to be written.
+     */
+    public int getCapacity() {
+        return this.queue.size() + this.queue.remainingCapacity();
+    }
+
+    /**
+     * Write frames until closed.
+     */
+    private void run() {
+        while (!this.closed) {
+            Frame frame;
+            try {
+                frame = this.queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                long start = System.nanoTime();
+                this.port.write(frame.data, frame.timeout);
+                Metrics metrics = Metrics.getInstance();
+                metrics.recordSince(Metrics.Distribution.WRITE_TIME, start);
+                metrics.add(Metrics.Counter.BYTES_WRITTEN, frame.data.length);
+                frame.callback.onWritten();
+            } catch (Exception e) {
+                frame.callback.onError(e);
+            }
+        }
+        this.drain();
+    }
+
+    /**
+     * Reject all frames waiting to be written. Synchronized so that once either thread returns
+     * from this method, every drained frame has been rejected.
+     */
+    private synchronized void drain() {
+        List<Frame> frames = new ArrayList<>();
+        this.queue.drainTo(frames);
+        Metrics.getInstance().add(Metrics.Counter.WRITES_REJECTED, frames.size());
+        for (Frame frame : frames) {
+            frame.callback.onError(new IOException("not connected"));
+        }
+    }
+
+    /**
+     * Stop writing and reject all frames waiting to be written. A write in progress completes or
+     * fails once the port is closed.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.thread.interrupt();
+        this.drain();
+    }
+}
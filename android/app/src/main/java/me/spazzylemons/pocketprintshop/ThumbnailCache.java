@@ -0,0 +1,184 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Generates small previews of stored prints once, and serves them from the cache directory by file
+ * URI. Recently generated previews are also kept in a size-bounded memory cache, so that a file
+ * removed by the system can be written again without rendering the print again. Previews are
+ * generated without a lock, so that several can be generated at once on the encode pool.
+ */
+public class ThumbnailCache {
+    /** The maximum number of bytes of encoded previews to keep in memory. */
+    private static final int CACHE_SIZE = 1024 * 1024;
+    /** The factor that previews are scaled down by, compared to the print at 1x. */
+    static final int SCALE = 2;
+
+    /** The cache shared by all modules, or null if not created yet. */
+    private static @Nullable ThumbnailCache instance = null;
+
+    /** The store to generate previews from. */
+    private final @NonNull PrintStore store;
+    /** The directory that previews are written to. */
+    private final @NonNull File directory;
+    /** Encodes the previews. */
+    private final @NonNull IndexedPngWriter writer = new IndexedPngWriter();
+    /** The most recently generated previews, by print ID. */
+    private final @NonNull LruCache<String, byte[]> cache = new LruCache<String, byte[]>(CACHE_SIZE) {
+        @Override
+        protected int sizeOf(String key, byte[] value) {
+            return value.length;
+        }
+    };
+
+    /**
+     * @param context The context to store previews in.
+     * @return The cache shared by all modules.
+     */
+    public static synchronized @NonNull ThumbnailCache getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new ThumbnailCache(PrintStore.getInstance(context), new File(context.getCacheDir(), "thumbnails"));
+        }
+        return instance;
+    }
+
+    /**
+     * Create a new ThumbnailCache.
+     * @param store     The store to generate previews from.
+     * @param directory The directory that previews are written to.
+     */
+    public ThumbnailCache(@NonNull PrintStore store, @NonNull File directory) {
+        this.store = store;
+        this.directory = directory;
+    }
+
+    /**
+     * @param id The ID of the print.
+     * @return The file that the preview is written to.
+     */
+    private @NonNull File getFile(@NonNull String id) {
+        return new File(this.directory, id + ".png");
+    }
+
+    /**
+     * Get the preview of a print, generating it if needed. This may encode a PNG, so it should be
+     * called on the encode pool.
+     * @param id The ID of the print.
+     * @return A file URI for the preview.
+     * @throws IOException If the print does not exist or cannot be read, or the preview cannot be written.
+     */
+    public @NonNull String getUri(@NonNull String id) throws IOException {
+        File file = this.getFile(id);
+        if (!file.isFile()) {
+            byte[] png = this.cache.get(id);
+            if (png == null) {
+                png = this.generate(id);
+                this.cache.put(id, png);
+            }
+            write(file, png);
+        }
+        return Uri.fromFile(file).toString();
+    }
+
+    /**
+     * Generate the preview of a print from its tile data.
+     * @param id The ID of the print.
+     * @return The encoded preview, {@link #SCALE} times smaller than the print at 1x.
+     * @throws IOException If the print does not exist or cannot be read.
+     */
+    @NonNull byte[] generate(@NonNull String id) throws IOException {
+        PrintStore.Tiles tiles = this.store.loadTiles(id);
+        byte[] shades = TileRenderer.renderShades(tiles.tiles, tiles.palettes);
+        int width = GbpPrint.WIDTH / SCALE;
+        int height = tiles.getHeight() / SCALE;
+        return this.writer.encode(shrink(shades, GbpPrint.WIDTH, width, height), width, height, TileRenderer.DEFAULT_PALETTE, 1);
+    }
+
+    /**
+     * Scale shades down by {@link #SCALE}, averaging each block of pixels to the nearest shade.
+     * @param shades The shades to scale down.
+     * @param stride The width of the shades in pixels.
+     * @param width  The width of the result in pixels.
+     * @param height The height of the result in pixels.
+     * @return The scaled down shades.
+     */
+    static @NonNull byte[] shrink(@NonNull byte[] shades, int stride, int width, int height) {
+        byte[] result = new byte[width * height];
+        int area = SCALE * SCALE;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int sum = 0;
+                for (int dy = 0; dy < SCALE; dy++) {
+                    int row = (y * SCALE + dy) * stride + x * SCALE;
+                    for (int dx = 0; dx < SCALE; dx++) {
+                        sum += shades[row + dx];
+                    }
+                }
+                result[y * width + x] = (byte) ((sum + area / 2) / area);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Write an image to a cache directory, creating the directory if needed, and replacing the file
+     * in a single step so that it is never seen partly written.
+     * @param file The file to write to.
+     * @param png  The encoded image.
+     * @throws IOException If writing fails.
+     */
+    static void write(@NonNull File file, @NonNull byte[] png) throws IOException {
+        File directory = file.getParentFile();
+        if (directory == null || (!directory.isDirectory() && !directory.mkdirs())) {
+            throw new IOException("failed to create " + directory);
+        }
+        // each call has its own temporary file, since the same image may be written twice at once
+        File temp = File.createTempFile(file.getName(), ".tmp", directory);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(png);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("failed to write " + file);
+        }
+    }
+
+    /**
+     * Discard the preview of a print. If there is no preview, this method does nothing.
+     * @param id The ID of the print.
+     */
+    public void remove(@NonNull String id) {
+        this.cache.remove(id);
+        this.getFile(id).delete();
+    }
+}
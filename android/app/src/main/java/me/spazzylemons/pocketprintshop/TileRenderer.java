@@ -0,0 +1,124 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Decodes Game Boy 2bpp tile data into pixels.
+ */
+public class TileRenderer {
+    /** The default palette to use for rendering, from darkest to lightest. */
+    public static final int[] DEFAULT_PALETTE = { 0xff000000, 0xff555555, 0xffaaaaaa, 0xffffffff };
+
+    /**
+     * Maps a pair of tile bytes, with the high byte in the upper 8 bits, to the color numbers of the
+     * 8 pixels they describe. The leftmost pixel is stored in the upper 2 bits.
+     */
+    private static final char[] PIXELS = new char[0x10000];
+
+    static {
+        for (int pair = 0; pair < 0x10000; pair++) {
+            int lo = pair & 0xff;
+            int hi = pair >> 8;
+            int pixels = 0;
+            for (int px = 7; px >= 0; px--) {
+                pixels = (pixels << 2) | ((lo >> px) & 1) | (((hi >> px) & 1) << 1);
+            }
+            PIXELS[pair] = (char) pixels;
+        }
+    }
+
+    /**
+     * Map a color number through a palette byte to a shade.
+     * @param palette The palette byte from the print command.
+     * @param color   The color number from the tile data.
+     * @return The shade, where 0 is the darkest and 3 is the lightest.
+     */
+    public static int getShade(int palette, int color) {
+        return 3 - ((palette >> (color << 1)) & 3);
+    }
+
+    /**
+     * Render tile data into shades.
+     * @param tiles    The tile data, made up of complete rows of tiles.
+     * @param palettes The palette byte for each row of tiles.
+     * @return The shade of each pixel, as an index into {@link #DEFAULT_PALETTE}. The image is
+     *         {@link GbpPrint#WIDTH} pixels wide.
+     */
+    public static @NonNull byte[] renderShades(@NonNull byte[] tiles, @NonNull byte[] palettes) {
+        byte[] shades = new byte[getShadesLength(tiles)];
+        renderShades(tiles, palettes, shades);
+        return shades;
+    }
+
+    /**
+     * @param tiles The tile data, made up of complete rows of tiles.
+     * @return The number of shades that the tile data renders to.
+     */
+    public static int getShadesLength(@NonNull byte[] tiles) {
+        return GbpPrint.WIDTH * (tiles.length / GbpPrint.TILE_ROW_BYTES) * 8;
+    }
+
+    /**
+     * Render tile data into shades, into an existing buffer.
+     * @param tiles    The tile data, made up of complete rows of tiles.
+     * @param palettes The palette byte for each row of tiles.
+     * @param out      The buffer to write shades to, with room for {@link #getShadesLength(byte[])} shades.
+     * @return The number of rows of pixels rendered.
+     */
+    public static int renderShades(@NonNull byte[] tiles, @NonNull byte[] palettes, @NonNull byte[] out) {
+        int tileRows = tiles.length / GbpPrint.TILE_ROW_BYTES;
+        if (tileRows > palettes.length) {
+            throw new IllegalArgumentException("missing palettes for tile data");
+        }
+        for (int tileRow = 0; tileRow < tileRows; tileRow++) {
+            renderShades(tiles, tileRow * GbpPrint.TILE_ROW_BYTES, 1, palettes[tileRow], out, tileRow * GbpPrint.WIDTH * 8);
+        }
+        return tileRows * 8;
+    }
+
+    /**
+     * Render rows of tiles that share a palette into shades.
+     * @param tiles     The buffer containing the tile data.
+     * @param offset    The offset of the tile data in the buffer.
+     * @param tileRows  The number of rows of tiles to render.
+     * @param palette   The palette byte for the tiles.
+     * @param out       The buffer to write shades to, {@link GbpPrint#WIDTH} pixels wide.
+     * @param outOffset The offset in the output buffer to write to.
+     */
+    public static void renderShades(@NonNull byte[] tiles, int offset, int tileRows, int palette, @NonNull byte[] out, int outOffset) {
+        byte[] map = new byte[4];
+        for (int color = 0; color < 4; color++) {
+            map[color] = (byte) getShade(palette, color);
+        }
+        int index = outOffset;
+        for (int tileRow = 0; tileRow < tileRows; tileRow++) {
+            int base = offset + tileRow * GbpPrint.TILE_ROW_BYTES;
+            for (int py = 0; py < 8; py++) {
+                for (int i = base + py * 2; i < base + GbpPrint.TILE_ROW_BYTES; i += 16) {
+                    int bits = PIXELS[(tiles[i] & 0xff) | ((tiles[i + 1] & 0xff) << 8)];
+                    for (int shift = 14; shift >= 0; shift -= 2) {
+                        out[index++] = map[(bits >> shift) & 3];
+                    }
+                }
+            }
+        }
+    }
+}
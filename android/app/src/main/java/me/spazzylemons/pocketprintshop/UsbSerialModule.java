@@ -20,13 +20,18 @@ package me.spazzylemons.pocketprintshop;
 
 import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbManager;
+import android.net.Uri;
 import android.util.Base64;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -36,6 +41,7 @@ import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
@@ -46,24 +52,55 @@ import com.hoho.android.usbserial.util.SerialInputOutputManager;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * A module for handling a USB serial connection.
+ * A module for handling USB serial connections. Several devices may be connected at once, each
+ * with its own I/O threads and parser state.
  */
-public class UsbSerialModule extends ReactContextBaseJavaModule implements SerialInputOutputManager.Listener {
+public class UsbSerialModule extends ReactContextBaseJavaModule {
+    /** The tag used for logging. */
+    private static final String TAG = "UsbSerialModule";
     /** The context that this module is connected to. */
     private final @NonNull ReactApplicationContext reactContext;
     /** The intent that is used for requesting permission. */
     private static final String INTENT = BuildConfig.APPLICATION_ID + ".GRANT_USB";
-    /** The event ID for when the current device is disconnected. */
+    /** The event ID for when a device is disconnected. */
     private static final String DISCONNECT_EVENT = "usbSerialDisconnect";
-    /** The event ID for when the current device has available data. */
+    /** The event ID for when a device has available data. */
     private static final String READ_EVENT = "usbSerialRead";
-    /** The event ID for when the list of available devices may have changed. */
+    /** The event ID for when a serial device is attached or detached. */
     private static final String LIST_UPDATE_EVENT = "usbSerialListUpdate";
-    /** The current connection, or null if not connected. */
-    private @Nullable Connection connection = null;
+    /** The event ID for when a print has been received. */
+    private static final String PRINT_EVENT = "usbSerialPrint";
+    /** The default maximum time in milliseconds to hold read data before sending it. */
+    private static final long DEFAULT_READ_BATCH_INTERVAL = 16;
+    /** The default number of bytes of read data after which it is sent immediately. */
+    private static final int DEFAULT_READ_BATCH_SIZE = 4096;
+    /** The maximum number of writes waiting to be sent to the device. */
+    private static final int WRITE_QUEUE_CAPACITY = 64;
+    /** The open connections, by device ID. Entries are replaced atomically rather than under a lock. */
+    private final @NonNull ConcurrentHashMap<Integer, Connection> connections = new ConcurrentHashMap<>();
+    /** Encodes prints as they are received. Shared by all connections. */
+    private final @NonNull IndexedPngWriter pngWriter = new IndexedPngWriter();
+    /** The single thread used to schedule print timeouts and read flushes, off the main thread. */
+    private final @NonNull ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, TAG));
+    /** The maximum time in milliseconds to hold read data before sending it. */
+    private volatile long readBatchInterval = DEFAULT_READ_BATCH_INTERVAL;
+    /** The number of bytes of read data after which it is sent immediately. */
+    private volatile int readBatchSize = DEFAULT_READ_BATCH_SIZE;
+    /** True if raw read data is sent to JavaScript. Prints are sent either way. */
+    private volatile boolean readEvents = false;
+    /** The store that finished prints are saved to. */
+    private final @NonNull PrintStore printStore;
+    /** The drivers of the attached devices, updated as devices come and go. */
+    private final @NonNull DriverRegistry drivers = new DriverRegistry(UsbSerialProber.getDefaultProber());
 
     /**
      * Create a new UsbSerialModule.
@@ -72,6 +109,7 @@ public class UsbSerialModule extends ReactContextBaseJavaModule implements Seria
     UsbSerialModule(@NonNull ReactApplicationContext reactContext) {
         super(reactContext);
         this.reactContext = reactContext;
+        this.printStore = PrintStore.getInstance(reactContext);
         // register a receiver to handle changes in the USB device list
         IntentFilter filter = new IntentFilter();
         filter.addAction(UsbManager.ACTION_USB_DEVICE_ATTACHED);
@@ -80,11 +118,22 @@ public class UsbSerialModule extends ReactContextBaseJavaModule implements Seria
             @Override
             public void onReceive(Context context, Intent intent) {
                 String action = intent.getAction();
-                // update the device list when devices are attached or detached
-                if (UsbManager.ACTION_USB_DEVICE_ATTACHED.equals(action)) {
-                    UsbSerialModule.this.sendEvent(LIST_UPDATE_EVENT, null);
+                UsbDevice device = intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+                if (device == null) return;
+                // probe only the device that changed, and send the new list if it was a serial device
+                boolean changed = false;
+                if (UsbSerialModule.this.drivers.load(UsbSerialModule.this.getManager())) {
+                    // nothing was listed before, and enumerating the bus has picked up the change
+                    changed = true;
+                } else if (UsbManager.ACTION_USB_DEVICE_ATTACHED.equals(action)) {
+                    changed = UsbSerialModule.this.drivers.add(device);
                 } else if (UsbManager.ACTION_USB_DEVICE_DETACHED.equals(action)) {
-                    UsbSerialModule.this.sendEvent(LIST_UPDATE_EVENT, null);
+                    changed = UsbSerialModule.this.drivers.remove(device);
+                }
+                if (changed) {
+                    WritableMap map = Arguments.createMap();
+                    map.putArray("devices", UsbSerialModule.this.createDeviceList());
+                    UsbSerialModule.this.sendEvent(LIST_UPDATE_EVENT, map);
                 }
             }
         }, filter);
@@ -95,16 +144,38 @@ public class UsbSerialModule extends ReactContextBaseJavaModule implements Seria
         return "UsbSerialModule";
     }
 
-    @Override
-    public void onNewData(@NonNull byte[] data) {
+    /**
+     * Send read data to JavaScript.
+     * @param deviceId The ID of the device that sent the data.
+     * @param data     The buffer containing the data.
+     * @param length   The number of bytes of data.
+     */
+    private void sendReadEvent(int deviceId, @NonNull byte[] data, int length) {
         WritableMap map = Arguments.createMap();
-        map.putString("data", Base64.encodeToString(data, 0));
+        map.putInt("deviceId", deviceId);
+        map.putString("data", Base64.encodeToString(data, 0, length, 0));
         this.sendEvent(READ_EVENT, map);
     }
 
-    @Override
-    public void onRunError(@NonNull Exception e) {
-        this.disconnect();
+    /**
+     * Save a finished print and send it to JavaScript.
+     * @param deviceId The ID of the device that sent the print.
+     * @param print    The print.
+     * @param png      The print, encoded as a PNG.
+     */
+    private void savePrint(int deviceId, @NonNull GbpPrint print, @NonNull byte[] png) {
+        try {
+            long start = System.nanoTime();
+            PrintStore.Entry entry = this.printStore.save(print, png);
+            Metrics metrics = Metrics.getInstance();
+            metrics.recordSince(Metrics.Distribution.SAVE_TIME, start);
+            metrics.increment(Metrics.Counter.PRINTS);
+            WritableMap map = PrintStoreModule.toMap(entry);
+            map.putInt("deviceId", deviceId);
+            this.sendEvent(PRINT_EVENT, map);
+        } catch (IOException e) {
+            Log.e(TAG, "failed to save print", e);
+        }
     }
 
     /**
@@ -122,7 +193,8 @@ public class UsbSerialModule extends ReactContextBaseJavaModule implements Seria
      * @return The list of available USB drivers.
      */
     private @NonNull List<UsbSerialDriver> findDrivers() {
-        return UsbSerialProber.getDefaultProber().findAllDrivers(this.getManager());
+        this.drivers.load(this.getManager());
+        return this.drivers.getDrivers();
     }
 
     /**
@@ -130,12 +202,27 @@ public class UsbSerialModule extends ReactContextBaseJavaModule implements Seria
      * @return The driver for this USB device. If no device was found, an exception is thrown.
      */
     private @NonNull UsbSerialDriver getDriverById(int id) {
+        this.drivers.load(this.getManager());
+        UsbSerialDriver driver = this.drivers.get(id);
+        if (driver == null) {
+            throw new IllegalArgumentException("device " + id + " not found");
+        }
+        return driver;
+    }
+
+    /**
+     * @return The IDs and names of the available devices.
+     */
+    private @NonNull WritableArray createDeviceList() {
+        WritableArray result = Arguments.createArray();
         for (UsbSerialDriver driver : this.findDrivers()) {
-            if (driver.getDevice().getDeviceId() == id) {
-                return driver;
-            }
+            WritableMap map = Arguments.createMap();
+            UsbDevice device = driver.getDevice();
+            map.putInt("id", device.getDeviceId());
+            map.putString("name", device.getProductName());
+            result.pushMap(map);
         }
-        throw new IllegalArgumentException("device " + id + " not found");
+        return result;
     }
 
     /**
@@ -144,6 +231,9 @@ public class UsbSerialModule extends ReactContextBaseJavaModule implements Seria
      * @param params The parameters for this event, or null if no parameters should be sent.
      */
     private void sendEvent(@NonNull String name, @Nullable WritableMap params) {
+        // events may be sent from background threads while React is being torn down
+        if (!this.reactContext.hasActiveCatalystInstance()) return;
+        Metrics.getInstance().increment(Metrics.Counter.EVENTS_SENT);
         reactContext.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
                 .emit(name, params);
     }
@@ -155,15 +245,7 @@ public class UsbSerialModule extends ReactContextBaseJavaModule implements Seria
     @ReactMethod
     public void listDevices(@NonNull Promise promise) {
         try {
-            WritableArray result = Arguments.createArray();
-            for (UsbSerialDriver driver : this.findDrivers()) {
-                WritableMap map = Arguments.createMap();
-                UsbDevice device = driver.getDevice();
-                map.putInt("id", device.getDeviceId());
-                map.putString("name", device.getProductName());
-                result.pushMap(map);
-            }
-            promise.resolve(result);
+            promise.resolve(this.createDeviceList());
         } catch (Exception e) {
             promise.reject(e);
         }
@@ -185,11 +267,13 @@ public class UsbSerialModule extends ReactContextBaseJavaModule implements Seria
     /**
      * Connect to the device with the given ID.
      * @param deviceId The ID of the device to connect to.
+     * @param options  The serial parameters and read tuning, or null to use the defaults.
      * @param promise  Resolves on success, rejects on failure.
      */
     @ReactMethod
-    public synchronized void connect(int deviceId, Promise promise) {
+    public void connect(int deviceId, @Nullable ReadableMap options, Promise promise) {
         try {
+            ConnectOptions connectOptions = ConnectOptions.fromMap(options);
             UsbSerialDriver driver = this.getDriverById(deviceId);
             UsbDevice device = driver.getDevice();
             UsbDeviceConnection connection = this.getManager().openDevice(device);
@@ -203,14 +287,7 @@ public class UsbSerialModule extends ReactContextBaseJavaModule implements Seria
                 throw new RuntimeException("permission denied");
             }
             try {
-                // create a new connection with the device
-                Connection newConnection = new Connection(connection, driver.getPorts().get(0));
-                if (this.connection != null) {
-                    // fail if we're already connected
-                    newConnection.close();
-                    throw new IllegalStateException("already connected");
-                }
-                this.connection = newConnection;
+                this.connectPort(deviceId, connection, driver.getPorts().get(0), connectOptions);
             } catch (Exception e) {
                 // clean up connection
                 connection.close();
@@ -223,37 +300,260 @@ public class UsbSerialModule extends ReactContextBaseJavaModule implements Seria
     }
 
     /**
-     * Disconnect from the current device. If not connected, this method does nothing.
+     * Open a port and add it to the open connections.
+     * @param deviceId   The ID of the device that the port belongs to.
+     * @param connection The device connection to open the port with.
+     * @param port       The port to open.
+     * @param options    The serial parameters and read tuning.
+     * @throws IOException If opening the port fails, or if disconnected while opening.
+     * @throws IllegalStateException If the device is already connected.
+     */
+    void connectPort(
+            int deviceId,
+            @Nullable UsbDeviceConnection connection,
+            @NonNull UsbSerialPort port,
+            @NonNull ConnectOptions options
+    ) throws IOException {
+        Connection newConnection = new Connection(deviceId, port);
+        if (this.connections.putIfAbsent(deviceId, newConnection) != null) {
+            // fail if this device is already connected
+            newConnection.writer.close();
+            throw new IllegalStateException("device " + deviceId + " already connected");
+        }
+        try {
+            newConnection.open(connection, options);
+        } catch (Exception e) {
+            this.connections.remove(deviceId, newConnection);
+            throw e;
+        }
+        if (!newConnection.state.compareAndSet(State.CONNECTING, State.OPEN)) {
+            // disconnect was called while opening, and left the cleanup to us
+            newConnection.close();
+            this.connections.remove(deviceId, newConnection);
+            throw new IOException("disconnected while connecting");
+        }
+    }
+
+    /**
+     * Disconnect from a device. If the device is not connected, this method does nothing.
+     * @param deviceId The ID of the device to disconnect from.
+     */
+    @ReactMethod
+    public void disconnect(int deviceId) {
+        Connection connection = this.connections.get(deviceId);
+        if (connection != null) {
+            this.closeConnection(connection);
+        }
+    }
+
+    /**
+     * Disconnect from every device.
      */
     @ReactMethod
-    public synchronized void disconnect() {
-        if (this.connection == null) return;
+    public void disconnectAll() {
+        for (Connection connection : this.connections.values()) {
+            this.closeConnection(connection);
+        }
+    }
+
+    /**
+     * @param deviceId The ID of the device.
+     * @return The open connection to the device.
+     * @throws IOException If the device is not connected.
+     */
+    private @NonNull Connection getOpenConnection(int deviceId) throws IOException {
+        Connection connection = this.connections.get(deviceId);
+        if (connection == null || connection.state.get() != State.OPEN) {
+            throw new IOException("device " + deviceId + " not connected");
+        }
+        return connection;
+    }
+
+    /**
+     * Close a connection. Only the first call for a connection has any effect, so this method
+     * may be called from any thread without locking.
+     * @param target The connection to close.
+     */
+    private void closeConnection(@NonNull Connection target) {
+        while (true) {
+            State state = target.state.get();
+            if (state == State.CLOSING) return;
+            if (target.state.compareAndSet(state, State.CLOSING)) {
+                // a connection that is still opening is closed by the thread opening it
+                if (state == State.CONNECTING) return;
+                break;
+            }
+        }
         try {
-            this.connection.close();
+            target.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            Log.w(TAG, "failed to close connection", e);
         }
-        this.connection = null;
-        this.sendEvent(DISCONNECT_EVENT, null);
+        this.connections.remove(target.deviceId, target);
+        target.readBatcher.flush();
+        target.readBatcher.close();
+        target.capture.discard();
+        WritableMap map = Arguments.createMap();
+        map.putInt("deviceId", target.deviceId);
+        this.sendEvent(DISCONNECT_EVENT, map);
     }
 
     /**
-     * Send data to the connected device.
+     * Send data to a connected device. The data is queued and written on a separate thread.
+     * @param deviceId   The ID of the device to send to.
      * @param base64Data The data to send, encoded as base64.
      * @param timeout    The timeout before giving up. 0 means no timeout.
-     * @param promise    Resolves on success, rejects on failure.
+     * @param promise    Resolves once written, rejects on failure, on disconnect, or if too many
+     *                   writes are waiting.
+     */
+    @ReactMethod
+    public void write(int deviceId, String base64Data, int timeout, Promise promise) {
+        try {
+            this.getOpenConnection(deviceId).writer.submit(Base64.decode(base64Data, 0), timeout, promise);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    /**
+     * Get the number of writes waiting to be sent, so that callers can slow down when it is full.
+     * @param deviceId The ID of the device.
+     * @param promise  Resolves to the queue depth and capacity, rejects if not connected.
      */
     @ReactMethod
-    public synchronized void write(String base64Data, int timeout, Promise promise) {
-        if (this.connection == null) return;
+    public void getWriteQueueDepth(int deviceId, Promise promise) {
         try {
-            this.connection.port.write(Base64.decode(base64Data, 0), 0);
+            SerialWriter writer = this.getOpenConnection(deviceId).writer;
+            WritableMap map = Arguments.createMap();
+            map.putInt("depth", writer.getQueueDepth());
+            map.putInt("capacity", writer.getCapacity());
+            promise.resolve(map);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    /**
+     * Print a photo on a connected printer. The photo is scaled to the width of a print, dithered
+     * to four shades, and sent as packets paced for the printer.
+     * @param deviceId The ID of the device that the printer is connected through.
+     * @param uri      The URI of the photo.
+     * @param options  The dithering, margins and pacing, or null to use the defaults.
+     * @param promise  Resolves once every packet is sent, rejects on failure or on disconnect.
+     */
+    @ReactMethod
+    public void printImage(int deviceId, @NonNull String uri, @Nullable ReadableMap options, @NonNull Promise promise) {
+        try {
+            PrintOptions printOptions = PrintOptions.fromMap(options);
+            // fail before decoding the photo if the device is not connected
+            this.getOpenConnection(deviceId);
+            EncodeExecutor.getInstance().execute(() -> {
+                try {
+                    byte[] tiles = this.loadPhoto(Uri.parse(uri), printOptions.dither);
+                    this.sendPrint(deviceId, tiles, printOptions, promise);
+                } catch (Exception e) {
+                    promise.reject(e);
+                }
+            }, promise);
+        } catch (Exception e) {
+            promise.reject(e);
+        }
+    }
+
+    /**
+     * Decode a photo and convert it to tile data.
+     * @param uri    The URI of the photo.
+     * @param dither The dithering method, one of the constants in {@link PhotoConverter}.
+     * @return The tile data, made up of complete rows of tiles.
+     * @throws IOException If the photo cannot be read or decoded.
+     */
+    private @NonNull byte[] loadPhoto(@NonNull Uri uri, int dither) throws IOException {
+        ContentResolver resolver = this.reactContext.getContentResolver();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = resolver.openInputStream(uri)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("failed to decode image");
+        }
+        // photos are much larger than a print, so skip most of the pixels while decoding
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (options.outWidth / (options.inSampleSize * 2) >= GbpPrint.WIDTH * 2) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap bitmap;
+        try (InputStream in = resolver.openInputStream(uri)) {
+            bitmap = BitmapFactory.decodeStream(in, null, options);
+        }
+        if (bitmap == null) {
+            throw new IOException("failed to decode image");
+        }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        BufferPool pool = BufferPool.getInstance();
+        int[] pixels = pool.acquireInts(width * height);
+        try {
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            bitmap.recycle();
+            return PhotoConverter.convert(pixels, width, height, dither);
+        } finally {
+            pool.release(pixels);
+        }
+    }
+
+    /**
+     * Send tile data to a printer.
+     * @param deviceId The ID of the device that the printer is connected through.
+     * @param tiles    The tile data, made up of complete rows of tiles.
+     * @param options  The margins and pacing.
+     * @param promise  Resolves once every packet is sent, rejects on failure or on disconnect.
+     * @throws IOException If the device is not connected.
+     */
+    void sendPrint(int deviceId, @NonNull byte[] tiles, @NonNull PrintOptions options, @NonNull Promise promise) throws IOException {
+        SerialWriter writer = this.getOpenConnection(deviceId).writer;
+        List<byte[]> packets = GbpPacketWriter.createPrint(tiles, options.margins, options.exposure, options.compress);
+        new PacketSender(packets, writer, this.scheduler, options.packetDelay, options.printDelay, promise).start();
+    }
+
+    /**
+     * Configure how read data is coalesced before being sent, for current and future connections.
+     * @param interval The maximum time in milliseconds to hold data, or 0 to send it immediately.
+     * @param maxBytes The number of bytes after which data is sent immediately.
+     * @param promise  Resolves on success, rejects if the parameters are invalid.
+     */
+    @ReactMethod
+    public void setReadBatching(int interval, int maxBytes, @NonNull Promise promise) {
+        try {
+            ReadBatcher.checkParameters(interval, maxBytes);
+            this.readBatchInterval = interval;
+            this.readBatchSize = maxBytes;
+            for (Connection connection : this.connections.values()) {
+                connection.readBatcher.configure(interval, maxBytes);
+            }
             promise.resolve(null);
         } catch (Exception e) {
             promise.reject(e);
         }
     }
 
+    /**
+     * Choose whether raw read data is sent to JavaScript. It is off by default, since completed
+     * prints are sent either way and encoding every read is wasted work without a listener.
+     * @param enabled True to send read events.
+     */
+    @ReactMethod
+    public void setReadEvents(boolean enabled) {
+        this.readEvents = enabled;
+        if (!enabled) {
+            // send what is already held, rather than leaving it until events are enabled again
+            for (Connection connection : this.connections.values()) {
+                connection.readBatcher.flush();
+            }
+        }
+    }
+
     /**
      * Stub method required to silence a warning from React.
      */
@@ -266,45 +566,138 @@ public class UsbSerialModule extends ReactContextBaseJavaModule implements Seria
     @ReactMethod
     public void removeListeners(Integer count) {}
 
+    /**
+     * The lifecycle of a connection.
+     */
+    private enum State {
+        /** The port is being opened. */
+        CONNECTING,
+        /** The port is open, and data may be read and written. */
+        OPEN,
+        /** The port is closed or being closed. */
+        CLOSING,
+    }
+
     /**
      * Abstracts the connection and disconnection progress.
      */
-    private class Connection implements Closeable {
+    private class Connection implements Closeable, SerialInputOutputManager.Listener, BulkReader.Listener {
+        /** The ID of the device that this connection belongs to. */
+        private final int deviceId;
+        /** The current state of this connection. */
+        private final @NonNull AtomicReference<State> state = new AtomicReference<>(State.CONNECTING);
         /** The port that this connection refers to. */
         private final @NonNull UsbSerialPort port;
-        /** The I/O manager that handles events for this connection. */
-        private final @NonNull SerialInputOutputManager ioManager;
+        /** The I/O manager that handles events for this connection, or null until the port is opened. */
+        private @Nullable SerialInputOutputManager ioManager = null;
+        /** The reader that keeps several transfers queued, or null if the I/O manager is used instead. */
+        private @Nullable BulkReader bulkReader = null;
+        /** Writes data to the port. */
+        private final @NonNull SerialWriter writer;
+        /** Coalesces read data before it is sent to JavaScript, if read events are enabled. */
+        private final @NonNull ReadBatcher readBatcher;
+        /** Collects the received data into prints. */
+        private final @NonNull PrintCapture capture;
 
         /**
-         * Create a new connection.
-         * @param connection The connection to open.
-         * @param port The port to open.
-         * @throws IOException If connecting fails
+         * Create a new connection. The port is not opened until {@link #open} is called.
+         * @param deviceId The ID of the device that this connection belongs to.
+         * @param port     The port to open.
          */
-        Connection(
-                @NonNull UsbDeviceConnection connection,
-                @NonNull UsbSerialPort port
-        ) throws IOException {
+        Connection(int deviceId, @NonNull UsbSerialPort port) {
+            UsbSerialModule module = UsbSerialModule.this;
+            this.deviceId = deviceId;
             this.port = port;
-            this.port.open(connection);
+            this.writer = new SerialWriter(port, WRITE_QUEUE_CAPACITY);
+            this.readBatcher = new ReadBatcher(
+                    (data, length) -> module.sendReadEvent(deviceId, data, length),
+                    module.scheduler, module.readBatchInterval, module.readBatchSize);
+            this.capture = new PrintCapture(
+                    module.pngWriter, module.scheduler, EncodeExecutor.getInstance(), (print, png) -> module.savePrint(deviceId, print, png));
+        }
+
+        /**
+         * Open the port and start reading from it.
+         * @param connection The device connection to open the port with.
+         * @param options    The serial parameters and read tuning.
+         * @throws IOException If connecting fails
+         */
+        void open(@Nullable UsbDeviceConnection connection, @NonNull ConnectOptions options) throws IOException {
             try {
-                this.port.setParameters(115200, 8, UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE);
-                this.ioManager = new SerialInputOutputManager(port, UsbSerialModule.this);
-                this.ioManager.start();
+                this.port.open(connection);
             } catch (Exception e) {
+                this.writer.close();
+                throw e;
+            }
+            try {
+                this.port.setParameters(options.baudRate, 8, UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE);
+                if (options.readRequests != 0) {
+                    if (connection != null && BulkReader.isSupported(this.port)) {
+                        BulkReader bulkReader = new BulkReader(connection, this.port.getReadEndpoint(),
+                                options.readRequests, options.readBufferSize, options.threadPriority, this);
+                        this.bulkReader = bulkReader;
+                        bulkReader.start();
+                        return;
+                    }
+                    Log.i(TAG, "bulk reads not supported by this port, using the I/O manager");
+                }
+                // the I/O manager sizes its buffer from the read endpoint, which is only known once the
+                // port is open, and only accepts these options before it is started
+                SerialInputOutputManager ioManager = new SerialInputOutputManager(this.port, this);
+                if (options.readBufferSize != 0) {
+                    ioManager.setReadBufferSize(options.readBufferSize);
+                }
+                ioManager.setReadTimeout(options.readTimeout);
+                ioManager.setThreadPriority(options.threadPriority);
+                this.ioManager = ioManager;
+                ioManager.start();
+            } catch (Exception e) {
+                this.writer.close();
                 this.port.close();
                 throw e;
             }
         }
 
+        @Override
+        public void onNewData(@NonNull byte[] data) {
+            this.onNewData(data, data.length);
+        }
+
+        @Override
+        public void onNewData(@NonNull byte[] data, int length) {
+            if (this.state.get() != State.CLOSING) {
+                Metrics metrics = Metrics.getInstance();
+                metrics.increment(Metrics.Counter.READ_CHUNKS);
+                metrics.add(Metrics.Counter.BYTES_READ, length);
+                metrics.record(Metrics.Distribution.READ_CHUNK_SIZE, length);
+                if (UsbSerialModule.this.readEvents) {
+                    this.readBatcher.append(data, length);
+                }
+                this.capture.feed(data, length);
+            }
+        }
+
+        @Override
+        public void onRunError(@NonNull Exception e) {
+            // this is called on the I/O thread, which must not wait for the port to close
+            UsbSerialModule.this.scheduler.execute(() -> UsbSerialModule.this.closeConnection(this));
+        }
+
         /**
          * Close the connection.
          * @throws IOException If closing the connection fails
          */
         @Override
         public void close() throws IOException {
-            this.ioManager.setListener(null);
-            this.ioManager.stop();
+            this.writer.close();
+            if (this.ioManager != null) {
+                this.ioManager.setListener(null);
+                this.ioManager.stop();
+            }
+            if (this.bulkReader != null) {
+                // this cancels the queued transfers, so the reader exits even if the device is silent
+                this.bulkReader.stop();
+            }
             this.port.close();
         }
     }
@@ -0,0 +1,72 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.nio.ByteBuffer;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(application = TestApplication.class)
+public class BufferPoolTest {
+    @Test
+    public void roundsUpToSizeClasses() {
+        Assert.assertEquals(0, BufferPool.getSizeClass(1));
+        Assert.assertEquals(0, BufferPool.getSizeClass(1024));
+        Assert.assertEquals(1, BufferPool.getSizeClass(1025));
+        Assert.assertEquals(12, BufferPool.getSizeClass(1 << 22));
+        Assert.assertEquals(-1, BufferPool.getSizeClass((1 << 22) + 1));
+    }
+
+    @Test
+    public void reusesReleasedBuffers() {
+        BufferPool pool = new BufferPool();
+        byte[] bytes = pool.acquireBytes(5000);
+        Assert.assertEquals(8192, bytes.length);
+        pool.release(bytes);
+        Assert.assertSame(bytes, pool.acquireBytes(8000));
+
+        int[] ints = pool.acquireInts(100);
+        pool.release(ints);
+        Assert.assertSame(ints, pool.acquireInts(1000));
+
+        ByteBuffer buffer = pool.acquireDirect(3000);
+        Assert.assertTrue(buffer.isDirect());
+        buffer.put((byte) 1);
+        pool.release(buffer);
+        ByteBuffer reused = pool.acquireDirect(4096);
+        Assert.assertSame(buffer, reused);
+        Assert.assertEquals(0, reused.position());
+        Assert.assertEquals(4096, reused.limit());
+    }
+
+    @Test
+    public void ignoresForeignBuffers() {
+        BufferPool pool = new BufferPool();
+        // arrays that are not a size class, or are too large, are left to the garbage collector
+        pool.release(new byte[3000]);
+        pool.release(new byte[1 << 23]);
+        Assert.assertEquals(4096, pool.acquireBytes(3000).length);
+        Assert.assertEquals((1 << 23) + 1, pool.acquireBytes((1 << 23) + 1).length);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import android.hardware.usb.UsbRequest;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(application = TestApplication.class)
+public class BulkReaderTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    /** A device that only completes transfers when the test says so, like a silent device. */
+    private static class FakeDevice implements BulkReader.Device {
+        /** The queued requests, in the order they were queued. */
+        final List<FakeRequest> queued = new ArrayList<>();
+        final BlockingQueue<FakeRequest> completed = new LinkedBlockingQueue<>();
+        final CountDownLatch closed;
+
+        FakeDevice(int requestCount) {
+            this.closed = new CountDownLatch(requestCount);
+        }
+
+        @Override
+        public @NonNull UsbRequest openRequest() {
+            return new FakeRequest(this);
+        }
+
+        @Override
+        public UsbRequest requestWait() {
+            try {
+                // like the real call, this has no timeout
+                return this.completed.take();
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+
+        synchronized void awaitQueued(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_SECONDS * 1000;
+            while (this.queued.size() < count) {
+                long remaining = deadline - System.currentTimeMillis();
+                Assert.assertTrue("only " + this.queued.size() + " reads queued", remaining > 0);
+                this.wait(remaining);
+            }
+        }
+
+        /** Complete the queued request at an index with data. */
+        synchronized void complete(int index, byte[] data) {
+            FakeRequest request = this.queued.remove(index);
+            request.buffer.put(data);
+            this.completed.add(request);
+        }
+    }
+
+    private static class FakeRequest extends UsbRequest {
+        private final FakeDevice device;
+        private Object clientData;
+        ByteBuffer buffer;
+        volatile boolean cancelled = false;
+
+        FakeRequest(FakeDevice device) {
+            this.device = device;
+        }
+
+        @Override
+        public boolean queue(ByteBuffer buffer, int length) {
+            synchronized (this.device) {
+                this.buffer = buffer;
+                this.device.queued.add(this);
+                this.device.notifyAll();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean cancel() {
+            synchronized (this.device) {
+                if (this.device.queued.remove(this)) {
+                    this.cancelled = true;
+                    this.device.completed.add(this);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            this.device.closed.countDown();
+        }
+
+        @Override
+        public void setClientData(Object data) {
+            this.clientData = data;
+        }
+
+        @Override
+        public Object getClientData() {
+            return this.clientData;
+        }
+    }
+
+    private static class Recorder implements BulkReader.Listener {
+        final BlockingQueue<String> data = new LinkedBlockingQueue<>();
+        volatile Exception error = null;
+
+        @Override
+        public void onNewData(@NonNull byte[] data, int length) {
+            this.data.add(new String(data, 0, length));
+        }
+
+        @Override
+        public void onRunError(@NonNull Exception e) {
+            this.error = e;
+        }
+
+        String next() throws InterruptedException {
+            String result = this.data.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            Assert.assertNotNull("no data delivered", result);
+            return result;
+        }
+    }
+
+    @Test
+    public void deliversInQueueOrder() throws Exception {
+        FakeDevice device = new FakeDevice(4);
+        Recorder recorder = new Recorder();
+        BulkReader reader = new BulkReader(device, 4, 8, 0, recorder);
+        reader.start();
+        device.awaitQueued(4);
+        // the second and third transfers finish before the first
+        device.complete(1, "b".getBytes());
+        device.complete(1, "c".getBytes());
+        Thread.sleep(50);
+        Assert.assertTrue(recorder.data.isEmpty());
+        device.complete(0, "a".getBytes());
+        Assert.assertEquals("a", recorder.next());
+        Assert.assertEquals("b", recorder.next());
+        Assert.assertEquals("c", recorder.next());
+        // delivered transfers are queued again behind the fourth
+        device.awaitQueued(4);
+        device.complete(0, "d".getBytes());
+        Assert.assertEquals("d", recorder.next());
+        reader.stop();
+        Assert.assertTrue(device.closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Assert.assertNull(recorder.error);
+    }
+
+    @Test
+    public void stopsWhileDeviceIsSilent() throws Exception {
+        FakeDevice device = new FakeDevice(8);
+        Recorder recorder = new Recorder();
+        BulkReader reader = new BulkReader(device, 8, 64, 0, recorder);
+        reader.start();
+        device.awaitQueued(8);
+        // nothing completes until the transfers are cancelled
+        reader.stop();
+        Assert.assertTrue("reader did not free its requests", device.closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        synchronized (device) {
+            Assert.assertTrue(device.queued.isEmpty());
+        }
+        Assert.assertTrue(recorder.data.isEmpty());
+        Assert.assertNull(recorder.error);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads the packet captures from the emulator's test directory.
+ */
+public class Captures {
+    /** The directory containing the captures, relative to the app module. */
+    public static final File DIRECTORY = new File("../../GameBoyPrinterEmulator/test");
+    /** A capture containing a single uncompressed print. */
+    public static final String CAMERA = "2020-08-02_GameboyPocketCameraJP.txt";
+    /** A capture containing two uncompressed prints. */
+    public static final String MULTIPRINT = "2020-08-02_PokemonSpeciallPicachuEdition_multiprint.txt";
+    /** A capture containing three compressed prints. */
+    public static final String COMPRESSION = "2020-08-10_Pokemon_trading_card_compressiontest.txt";
+    /** A capture containing a single print with a non-default palette. */
+    public static final String PALETTE = "2020-08-17_Alice_in_Wonderland_palletsupporttest.txt";
+    /** All of the captures. */
+    public static final String[] ALL = { CAMERA, MULTIPRINT, COMPRESSION, PALETTE };
+
+    /** Matches comments in a capture. */
+    private static final Pattern COMMENT = Pattern.compile("/\\*.*?\\*/|//[^\\n]*", Pattern.DOTALL);
+    /** Matches bytes in a capture, with or without a hex prefix. */
+    private static final Pattern BYTE = Pattern.compile("\\b(?:0x)?([0-9A-Fa-f]{2})\\b");
+
+    /**
+     * Load a capture.
+     * @param name The file name of the capture.
+     * @return The bytes in the capture.
+     * @throws IOException If reading the capture fails.
+     */
+    public static @NonNull byte[] load(@NonNull String name) throws IOException {
+        String text = new String(Files.readAllBytes(new File(DIRECTORY, name).toPath()), StandardCharsets.UTF_8);
+        Matcher matcher = BYTE.matcher(COMMENT.matcher(text).replaceAll(" "));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (matcher.find()) {
+            out.write(Integer.parseInt(matcher.group(1), 16));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Load a capture and parse it into a print.
+     * @param name The file name of the capture.
+     * @return The first print in the capture.
+     * @throws IOException If reading the capture fails, or if it contains no print.
+     */
+    public static @NonNull GbpPrint parse(@NonNull String name) throws IOException {
+        GbpPrintBuilder builder = new GbpPrintBuilder();
+        new GbpPacketParser(builder).feed(load(name));
+        GbpPrint print = builder.finish();
+        if (print == null) {
+            throw new IOException("no print in " + name);
+        }
+        return print;
+    }
+
+    /**
+     * Find where the first print of a capture ends: after the first status inquiry that follows a
+     * print command feeding paper out, which is when the print is finished.
+     * @param data The bytes in the capture.
+     * @return The index of the last byte of that status inquiry.
+     */
+    public static int findPrintEnd(@NonNull byte[] data) {
+        boolean[] ended = { false, false };
+        GbpPacketParser parser = new GbpPacketParser(new GbpPacketParser.Listener() {
+            @Override
+            public void onPacket(int command, int compression, @NonNull byte[] payload, int size) {
+                if (command == GbpPacketParser.COMMAND_PRINT && size > 1 && (payload[1] & 0x0f) != 0) {
+                    ended[0] = true;
+                } else if (command == GbpPacketParser.COMMAND_STATUS && ended[0]) {
+                    ended[1] = true;
+                }
+            }
+
+            @Override
+            public void onError(@NonNull String message) {
+            }
+        });
+        for (int i = 0; i < data.length; i++) {
+            parser.feed(data, i, 1);
+            if (ended[1]) return i;
+        }
+        throw new AssertionError("no print ends in the capture");
+    }
+}
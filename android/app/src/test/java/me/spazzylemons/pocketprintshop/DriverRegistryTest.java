@@ -0,0 +1,164 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import android.content.Context;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+
+import com.hoho.android.usbserial.driver.ProbeTable;
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialProber;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadow.api.Shadow;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(application = TestApplication.class, shadows = DriverRegistryTest.ShadowUsbDevice.class)
+public class DriverRegistryTest {
+    /** Gives devices an ID without a real USB bus. */
+    @Implements(UsbDevice.class)
+    public static class ShadowUsbDevice {
+        private int id;
+
+        @Implementation
+        protected int getDeviceId() {
+            return this.id;
+        }
+    }
+
+    /** A prober that only knows the devices that the test attaches. */
+    private static class StubProber extends UsbSerialProber {
+        final List<UsbDevice> attached = new ArrayList<>();
+        final Set<Integer> serial = new HashSet<>();
+        int enumerations = 0;
+
+        StubProber() {
+            super(new ProbeTable());
+        }
+
+        UsbDevice attach(int id, boolean isSerial) {
+            UsbDevice device = Shadow.newInstanceOf(UsbDevice.class);
+            ShadowUsbDevice shadow = Shadow.extract(device);
+            shadow.id = id;
+            this.attached.add(device);
+            if (isSerial) this.serial.add(id);
+            return device;
+        }
+
+        @Override
+        public List<UsbSerialDriver> findAllDrivers(UsbManager manager) {
+            this.enumerations++;
+            List<UsbSerialDriver> result = new ArrayList<>();
+            for (UsbDevice device : this.attached) {
+                UsbSerialDriver driver = this.probeDevice(device);
+                if (driver != null) result.add(driver);
+            }
+            return result;
+        }
+
+        @Override
+        public UsbSerialDriver probeDevice(UsbDevice device) {
+            if (!this.serial.contains(device.getDeviceId())) return null;
+            return (UsbSerialDriver) Proxy.newProxyInstance(
+                    UsbSerialDriver.class.getClassLoader(), new Class<?>[]{ UsbSerialDriver.class },
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getDevice":
+                                return device;
+                            case "getPorts":
+                                return Collections.emptyList();
+                            default:
+                                return null;
+                        }
+                    });
+        }
+    }
+
+    private static UsbManager getManager() {
+        return (UsbManager) RuntimeEnvironment.getApplication().getSystemService(Context.USB_SERVICE);
+    }
+
+    @Test
+    public void ignoresChangesBeforeLoading() {
+        StubProber prober = new StubProber();
+        DriverRegistry registry = new DriverRegistry(prober);
+        UsbDevice device = prober.attach(1, true);
+        // the device is found when the bus is enumerated instead
+        Assert.assertFalse(registry.add(device));
+        Assert.assertTrue(registry.getDrivers().isEmpty());
+        Assert.assertNull(registry.get(1));
+        Assert.assertTrue(registry.load(getManager()));
+        Assert.assertNotNull(registry.get(1));
+    }
+
+    @Test
+    public void enumeratesOnce() {
+        StubProber prober = new StubProber();
+        prober.attach(1, true);
+        prober.attach(2, false);
+        prober.attach(3, true);
+        DriverRegistry registry = new DriverRegistry(prober);
+        Assert.assertTrue(registry.load(getManager()));
+        Assert.assertFalse(registry.load(getManager()));
+        Assert.assertEquals(1, prober.enumerations);
+        List<UsbSerialDriver> drivers = registry.getDrivers();
+        Assert.assertEquals(2, drivers.size());
+        Assert.assertEquals(1, drivers.get(0).getDevice().getDeviceId());
+        Assert.assertEquals(3, drivers.get(1).getDevice().getDeviceId());
+        Assert.assertNull(registry.get(2));
+    }
+
+    @Test
+    public void addsAndRemovesDevices() {
+        StubProber prober = new StubProber();
+        prober.attach(1, true);
+        DriverRegistry registry = new DriverRegistry(prober);
+        registry.load(getManager());
+
+        Assert.assertTrue(registry.add(prober.attach(2, true)));
+        Assert.assertFalse(registry.add(prober.attach(3, false)));
+        Assert.assertNotNull(registry.get(2));
+        Assert.assertNull(registry.get(3));
+        Assert.assertEquals(2, registry.getDrivers().size());
+
+        UsbDevice removed = prober.attached.get(0);
+        Assert.assertTrue(registry.remove(removed));
+        Assert.assertFalse(registry.remove(removed));
+        Assert.assertNull(registry.get(1));
+        Assert.assertFalse(registry.remove(prober.attached.get(2)));
+        Assert.assertEquals(1, registry.getDrivers().size());
+        // attaching and detaching never enumerates the bus again
+        Assert.assertEquals(1, prober.enumerations);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(application = TestApplication.class)
+public class EncodeExecutorTest {
+    @Test
+    public void runsQueuedJobsInOrder() throws Throwable {
+        EncodeExecutor executor = new EncodeExecutor(4, 64);
+        EncodeExecutor.Queue queue = executor.newQueue();
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<MockPromise> promises = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            int index = i;
+            MockPromise promise = new MockPromise();
+            promises.add(promise);
+            queue.submit(() -> {
+                order.add(index);
+                return index;
+            }, promise);
+        }
+        for (int i = 0; i < promises.size(); i++) {
+            Assert.assertEquals(i, promises.get(i).get());
+        }
+        for (int i = 0; i < order.size(); i++) {
+            Assert.assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    @Test
+    public void cancelsWaitingJobs() throws Throwable {
+        EncodeExecutor executor = new EncodeExecutor(1, 2);
+        EncodeExecutor.Queue queue = executor.newQueue();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MockPromise running = new MockPromise();
+        queue.submit(() -> {
+            started.countDown();
+            release.await();
+            return "done";
+        }, running);
+        started.await();
+
+        MockPromise waiting = new MockPromise();
+        queue.submit(() -> "stale", waiting);
+        MockPromise second = new MockPromise();
+        queue.submit(() -> "stale", second);
+        // the queue only holds two jobs
+        MockPromise full = new MockPromise();
+        queue.submit(() -> "stale", full);
+        Assert.assertThrows(IllegalStateException.class, full::get);
+
+        queue.cancel();
+        Assert.assertThrows(CancellationException.class, waiting::get);
+        Assert.assertThrows(CancellationException.class, second::get);
+        MockPromise late = new MockPromise();
+        queue.submit(() -> "late", late);
+        Assert.assertThrows(CancellationException.class, late::get);
+
+        // the job that already started still finishes
+        release.countDown();
+        Assert.assertEquals("done", running.get());
+    }
+
+    @Test
+    public void rejectsQueuedJobsWhenPoolIsFull() throws Throwable {
+        EncodeExecutor executor = new EncodeExecutor(1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MockPromise running = new MockPromise();
+        executor.submit(() -> {
+            started.countDown();
+            release.await();
+            return "done";
+        }, running);
+        started.await();
+        MockPromise waiting = new MockPromise();
+        executor.submit(() -> "waiting", waiting);
+
+        // the job must not run on the submitting thread, which is the native-modules thread
+        Thread caller = Thread.currentThread();
+        MockPromise rejected = new MockPromise();
+        executor.newQueue().submit(() -> Thread.currentThread() == caller, rejected);
+        Assert.assertThrows(IllegalStateException.class, rejected::get);
+
+        release.countDown();
+        Assert.assertEquals("done", running.get());
+        Assert.assertEquals("waiting", waiting.get());
+    }
+}
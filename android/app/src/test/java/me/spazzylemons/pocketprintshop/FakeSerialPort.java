@@ -0,0 +1,119 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import android.hardware.usb.UsbEndpoint;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import org.robolectric.util.ReflectionHelpers;
+import org.robolectric.util.ReflectionHelpers.ClassParameter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A serial port that records written data. Built as a proxy so that it does not depend on the
+ * exact set of methods in the library's interface.
+ */
+public class FakeSerialPort implements InvocationHandler {
+    /** The packet size of a full-speed bulk endpoint. */
+    private static final int MAX_PACKET_SIZE = 64;
+
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+    private volatile boolean open = false;
+
+    public final UsbSerialPort port = (UsbSerialPort) Proxy.newProxyInstance(
+            UsbSerialPort.class.getClassLoader(), new Class<?>[]{ UsbSerialPort.class }, this);
+
+    /**
+     * Create an endpoint, which the I/O manager needs to size its read buffer. The constructor is
+     * hidden from the SDK, but available at runtime.
+     */
+    public static UsbEndpoint createEndpoint(int maxPacketSize) {
+        return ReflectionHelpers.callConstructor(UsbEndpoint.class,
+                ClassParameter.from(int.class, 0x81),
+                ClassParameter.from(int.class, 2),
+                ClassParameter.from(int.class, maxPacketSize),
+                ClassParameter.from(int.class, 0));
+    }
+
+    /** Make writes block until {@link #release()} is called. */
+    public void hold() {
+        this.gate = new CountDownLatch(1);
+    }
+
+    public void release() {
+        this.gate.countDown();
+    }
+
+    public synchronized byte[] getWritten() {
+        return this.written.toByteArray();
+    }
+
+    public boolean isOpen() {
+        return this.open;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "open":
+                this.open = true;
+                return null;
+            case "close":
+                this.open = false;
+                this.release();
+                return null;
+            case "getReadEndpoint":
+            case "getWriteEndpoint":
+                return createEndpoint(MAX_PACKET_SIZE);
+            case "isOpen":
+                return this.open;
+            case "write":
+                this.gate.await();
+                if (!this.open) throw new IOException("port closed");
+                synchronized (this) {
+                    this.written.write((byte[]) args[0]);
+                }
+                return null;
+            case "read":
+                // poll slowly, like a real read with a timeout
+                if (!this.open) throw new IOException("port closed");
+                Thread.sleep(1);
+                return 0;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "FakeSerialPort";
+            default:
+                Class<?> type = method.getReturnType();
+                if (type == boolean.class) return false;
+                if (type == int.class) return 0;
+                return null;
+        }
+    }
+}
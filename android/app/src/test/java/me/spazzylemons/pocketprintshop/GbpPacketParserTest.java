@@ -0,0 +1,354 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(application = TestApplication.class)
+public class GbpPacketParserTest {
+    private static GbpPrint parse(byte[] data, int chunkSize) {
+        GbpPrintBuilder builder = new GbpPrintBuilder();
+        GbpPacketParser parser = new GbpPacketParser(builder);
+        for (int i = 0; i < data.length; i += chunkSize) {
+            parser.feed(data, i, Math.min(chunkSize, data.length - i));
+        }
+        return builder.finish();
+    }
+
+    private static byte[] packet(int command, int compression, byte[] payload, int checksumOffset, int status) {
+        byte[] result = new byte[payload.length + 10];
+        int checksum = command + compression + (payload.length & 0xff) + (payload.length >> 8);
+        result[0] = (byte) 0x88;
+        result[1] = 0x33;
+        result[2] = (byte) command;
+        result[3] = (byte) compression;
+        result[4] = (byte) payload.length;
+        result[5] = (byte) (payload.length >> 8);
+        for (int i = 0; i < payload.length; i++) {
+            result[6 + i] = payload[i];
+            checksum += payload[i] & 0xff;
+        }
+        checksum += checksumOffset;
+        result[payload.length + 6] = (byte) checksum;
+        result[payload.length + 7] = (byte) (checksum >> 8);
+        result[payload.length + 8] = (byte) 0x81;
+        result[payload.length + 9] = (byte) status;
+        return result;
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        int length = 0;
+        for (byte[] array : arrays) length += array.length;
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (byte[] array : arrays) {
+            System.arraycopy(array, 0, result, offset, array.length);
+            offset += array.length;
+        }
+        return result;
+    }
+
+    private static byte[] fills(byte[] tiles) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < tiles.length; i += GbpPacketWriter.FILL_BYTES) {
+            byte[] payload = Arrays.copyOfRange(tiles, i, Math.min(tiles.length, i + GbpPacketWriter.FILL_BYTES));
+            byte[] packet = packet(GbpPacketParser.COMMAND_FILL, 0, payload, 0, 0);
+            out.write(packet, 0, packet.length);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void parsesSinglePrint() throws Exception {
+        GbpPrint print = parse(Captures.load(Captures.CAMERA), Integer.MAX_VALUE);
+        Assert.assertNotNull(print);
+        List<GbpPrint.Band> bands = print.getBands();
+        Assert.assertEquals(1, bands.size());
+        Assert.assertEquals(5760, bands.get(0).length);
+        Assert.assertEquals(0x13, bands.get(0).margins);
+        Assert.assertEquals(0xe4, bands.get(0).palette);
+        Assert.assertEquals(144, print.getHeight());
+    }
+
+    @Test
+    public void parsesMultiplePrints() throws Exception {
+        GbpPrint print = parse(Captures.load(Captures.MULTIPRINT), Integer.MAX_VALUE);
+        Assert.assertNotNull(print);
+        List<GbpPrint.Band> bands = print.getBands();
+        Assert.assertEquals(2, bands.size());
+        Assert.assertEquals(3200, bands.get(0).length);
+        Assert.assertEquals(4480, bands.get(1).length);
+        Assert.assertEquals(192, print.getHeight());
+    }
+
+    @Test
+    public void decompressesPrints() throws Exception {
+        GbpPrint print = parse(Captures.load(Captures.COMPRESSION), Integer.MAX_VALUE);
+        Assert.assertNotNull(print);
+        List<GbpPrint.Band> bands = print.getBands();
+        Assert.assertEquals(3, bands.size());
+        Assert.assertEquals(1280, bands.get(0).length);
+        Assert.assertEquals(3840, bands.get(1).length);
+        Assert.assertEquals(3200, bands.get(2).length);
+    }
+
+    @Test
+    public void decodesRunsAndLiterals() {
+        // a run of 129 bytes, 3 literal bytes, then a run of 2 bytes, repeated past the initial vram size
+        byte[] chunk = { (byte) 0xff, 0x11, 0x02, 0x01, 0x02, 0x03, (byte) 0x80, 0x22 };
+        byte[] expected = new byte[134];
+        Arrays.fill(expected, 0, 129, (byte) 0x11);
+        expected[129] = 1;
+        expected[130] = 2;
+        expected[131] = 3;
+        expected[132] = 0x22;
+        expected[133] = 0x22;
+        byte[] payload = new byte[chunk.length * 400];
+        for (int i = 0; i < 400; i++) {
+            System.arraycopy(chunk, 0, payload, i * chunk.length, chunk.length);
+        }
+        GbpPrintBuilder builder = new GbpPrintBuilder();
+        builder.onPacket(GbpPacketParser.COMMAND_FILL, 1, payload, payload.length);
+        // data that is cut short is dropped as a whole
+        builder.onPacket(GbpPacketParser.COMMAND_FILL, 1, new byte[]{ 0x05, 0x01, 0x02 }, 3);
+        builder.onPacket(GbpPacketParser.COMMAND_PRINT, 0, new byte[]{ 1, 0, (byte) 0xe4 }, 3);
+        GbpPrint.Band band = builder.finish().getBands().get(0);
+        Assert.assertEquals(expected.length * 400, band.length);
+        for (int i = 0; i < band.length; i++) {
+            Assert.assertEquals("byte " + i, expected[i % expected.length], band.tiles[band.offset + i]);
+        }
+    }
+
+    @Test
+    public void keepsBandsAfterInit() {
+        byte[] first = new byte[GbpPrint.TILE_ROW_BYTES];
+        Arrays.fill(first, (byte) 1);
+        byte[] second = new byte[GbpPrint.TILE_ROW_BYTES * 20];
+        Arrays.fill(second, (byte) 2);
+        byte[] data = concat(
+                packet(GbpPacketParser.COMMAND_INIT, 0, new byte[0], 0, 0),
+                packet(GbpPacketParser.COMMAND_FILL, 0, first, 0, 0),
+                packet(GbpPacketParser.COMMAND_PRINT, 0, new byte[]{ 1, 0x10, (byte) 0xe4, 0x40 }, 0, 0),
+                packet(GbpPacketParser.COMMAND_INIT, 0, new byte[0], 0, 0),
+                fills(second),
+                packet(GbpPacketParser.COMMAND_PRINT, 0, new byte[]{ 1, 0x03, (byte) 0xe4, 0x40 }, 0, 0));
+        GbpPrint print = parse(data, Integer.MAX_VALUE);
+        Assert.assertNotNull(print);
+        Assert.assertArrayEquals(concat(first, second), print.getTiles());
+    }
+
+    @Test
+    public void readsPalette() throws Exception {
+        GbpPrint print = parse(Captures.load(Captures.PALETTE), Integer.MAX_VALUE);
+        Assert.assertNotNull(print);
+        byte[] palettes = print.getPalettes();
+        Assert.assertEquals(18, palettes.length);
+        for (byte palette : palettes) {
+            Assert.assertEquals(0xd2, palette & 0xff);
+        }
+    }
+
+    @Test
+    public void parsesAcrossChunks() throws Exception {
+        for (String name : Captures.ALL) {
+            byte[] data = Captures.load(name);
+            byte[] expected = parse(data, Integer.MAX_VALUE).getTiles();
+            for (int chunkSize : new int[]{ 1, 7, 64, 4096 }) {
+                Assert.assertArrayEquals(name, expected, parse(data, chunkSize).getTiles());
+            }
+        }
+    }
+
+    @Test
+    public void resynchronizesWithoutMagic() throws Exception {
+        byte[] data = Captures.load(Captures.CAMERA);
+        byte[] expected = parse(data, Integer.MAX_VALUE).getTiles();
+        // only the init packet is lost, which the print does not need
+        data[0] = 0;
+        GbpPrint print = parse(data, Integer.MAX_VALUE);
+        Assert.assertNotNull(print);
+        Assert.assertArrayEquals(expected, print.getTiles());
+    }
+
+    @Test
+    public void dropsReportedChecksumErrors() {
+        byte[] tiles = new byte[GbpPrint.TILE_ROW_BYTES];
+        tiles[0] = 1;
+        byte[] data = concat(
+                packet(GbpPacketParser.COMMAND_INIT, 0, new byte[0], 0, 0),
+                packet(GbpPacketParser.COMMAND_FILL, 0, tiles, 1, 1),
+                packet(GbpPacketParser.COMMAND_FILL, 0, tiles, 0, 0),
+                packet(GbpPacketParser.COMMAND_PRINT, 0, new byte[]{ 1, 0, (byte) 0xe4, 0x40 }, 0, 0));
+        GbpPrint print = parse(data, Integer.MAX_VALUE);
+        Assert.assertNotNull(print);
+        Assert.assertArrayEquals(tiles, print.getTiles());
+    }
+
+    @Test
+    public void dropsUnreportedChecksumErrors() {
+        byte[] tiles = new byte[GbpPrint.TILE_ROW_BYTES];
+        tiles[0] = 1;
+        byte[] data = concat(
+                packet(GbpPacketParser.COMMAND_INIT, 0, new byte[0], 0, 0),
+                packet(GbpPacketParser.COMMAND_FILL, 0, new byte[GbpPrint.TILE_ROW_BYTES], 1, 0),
+                packet(GbpPacketParser.COMMAND_FILL, 0, tiles, 0, 0),
+                packet(GbpPacketParser.COMMAND_PRINT, 0, new byte[]{ 1, 0, (byte) 0xe4, 0x40 }, 0, 0));
+        GbpPrintBuilder builder = new GbpPrintBuilder();
+        GbpPacketParser parser = new GbpPacketParser(builder);
+        parser.feed(data);
+        Assert.assertEquals(1, parser.getDroppedPackets());
+        Assert.assertEquals(0, parser.getSkippedBytes());
+        GbpPrint print = builder.finish();
+        Assert.assertNotNull(print);
+        Assert.assertArrayEquals(tiles, print.getTiles());
+    }
+
+    @Test
+    public void recoversFromCorruptedSize() {
+        byte[] tiles = new byte[GbpPrint.TILE_ROW_BYTES];
+        tiles[0] = 1;
+        // the size of the first fill now runs into the second one
+        byte[] bad = packet(GbpPacketParser.COMMAND_FILL, 0, new byte[16], 0, 0);
+        bad[4] = 0x40;
+        byte[] data = concat(
+                packet(GbpPacketParser.COMMAND_INIT, 0, new byte[0], 0, 0),
+                bad,
+                packet(GbpPacketParser.COMMAND_FILL, 0, tiles, 0, 0),
+                packet(GbpPacketParser.COMMAND_PRINT, 0, new byte[]{ 1, 0, (byte) 0xe4, 0x40 }, 0, 0));
+        GbpPrint print = parse(data, 7);
+        Assert.assertNotNull(print);
+        Assert.assertArrayEquals(tiles, print.getTiles());
+    }
+
+    /** Records the packets that a parser delivers, as the header and payload of each. */
+    private static class PacketLog implements GbpPacketParser.Listener {
+        final List<byte[]> packets = new ArrayList<>();
+        int errors = 0;
+
+        @Override
+        public void onPacket(int command, int compression, byte[] payload, int size) {
+            byte[] packet = new byte[size + 2];
+            packet[0] = (byte) command;
+            packet[1] = (byte) compression;
+            System.arraycopy(payload, 0, packet, 2, size);
+            this.packets.add(packet);
+        }
+
+        @Override
+        public void onError(String message) {
+            this.errors++;
+        }
+    }
+
+    private static PacketLog parsePackets(byte[] data, Random random) {
+        PacketLog log = new PacketLog();
+        GbpPacketParser parser = new GbpPacketParser(log);
+        int i = 0;
+        while (i < data.length) {
+            int count = Math.min(1 + random.nextInt(512), data.length - i);
+            parser.feed(data, i, count);
+            i += count;
+        }
+        return log;
+    }
+
+    /**
+     * Check that the packets parsed from corrupted data are the original packets in order, with at
+     * most the given number lost.
+     */
+    private static void assertSurvives(String name, List<byte[]> expected, PacketLog actual, int maxLost) {
+        Assert.assertTrue(name + ": " + actual.packets.size() + " of " + expected.size() + " packets",
+                actual.packets.size() >= expected.size() - maxLost);
+        int j = 0;
+        for (byte[] packet : actual.packets) {
+            while (j < expected.size() && !Arrays.equals(expected.get(j), packet)) {
+                j++;
+            }
+            Assert.assertTrue(name + ": unexpected packet", j < expected.size());
+            j++;
+        }
+    }
+
+    @Test
+    public void survivesRandomCorruption() throws Exception {
+        Random random = new Random(0x3388);
+        for (String name : Captures.ALL) {
+            byte[] clean = Captures.load(name);
+            List<byte[]> expected = parsePackets(clean, random).packets;
+            for (int trial = 0; trial < 50; trial++) {
+                // corrupt bytes further apart than the largest packet, since a sum cannot catch
+                // every pair of errors in one packet
+                byte[] data = clean.clone();
+                int corruptions = 0;
+                for (int i = random.nextInt(1000); i < data.length; i += 660 + random.nextInt(2000)) {
+                    data[i] ^= (byte) (1 + random.nextInt(255));
+                    corruptions++;
+                }
+                PacketLog log = parsePackets(data, random);
+                assertSurvives(name, expected, log, corruptions);
+                Assert.assertTrue(name + ": errors not reported", log.packets.size() == expected.size() || log.errors > 0);
+            }
+        }
+    }
+
+    @Test
+    public void survivesInsertedAndDeletedBytes() throws Exception {
+        Random random = new Random(0x8833);
+        for (String name : Captures.ALL) {
+            byte[] clean = Captures.load(name);
+            List<byte[]> expected = parsePackets(clean, random).packets;
+            for (int trial = 0; trial < 50; trial++) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                int corruptions = 0;
+                int i = 0;
+                // keep the end intact, since a cut off packet is only an error once more data arrives
+                for (int at = random.nextInt(1000); at < clean.length - 16; at += 660 + random.nextInt(2000)) {
+                    out.write(clean, i, at - i);
+                    if (random.nextBoolean()) {
+                        // insert a burst of noise
+                        for (int n = 1 + random.nextInt(16); n > 0; n--) {
+                            out.write(random.nextInt(256));
+                        }
+                        i = at;
+                    } else {
+                        // lose a few bytes, which may span the end of one packet and the start of the next
+                        i = Math.min(clean.length, at + 1 + random.nextInt(4));
+                        corruptions++;
+                    }
+                    corruptions++;
+                }
+                out.write(clean, i, clean.length - i);
+                PacketLog log = parsePackets(out.toByteArray(), random);
+                assertSurvives(name, expected, log, corruptions);
+                Assert.assertTrue(name + ": errors not reported", log.errors > 0);
+            }
+        }
+    }
+}
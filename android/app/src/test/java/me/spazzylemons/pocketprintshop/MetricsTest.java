@@ -0,0 +1,70 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(application = TestApplication.class)
+public class MetricsTest {
+    @Test
+    public void bucketsCoverEveryValue() {
+        long[] values = { 0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE };
+        for (long value : values) {
+            int bucket = Histogram.getBucket(value);
+            Assert.assertTrue("value " + value, Histogram.getLowerBound(bucket) <= value);
+            if (value < Long.MAX_VALUE) {
+                Assert.assertTrue("value " + value, Histogram.getLowerBound(bucket + 1) > value);
+            }
+        }
+    }
+
+    @Test
+    public void estimatesPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(500.5, histogram.getMean(), 1e-9);
+        Assert.assertEquals(1000, histogram.getMax());
+        // percentiles are upper bounds, within an eighth of the true value
+        long p50 = histogram.getPercentile(50);
+        Assert.assertTrue("p50 " + p50, p50 >= 500 && p50 <= 500 * 9 / 8);
+        long p99 = histogram.getPercentile(99);
+        Assert.assertTrue("p99 " + p99, p99 >= 990 && p99 <= 1000);
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void countsParsedPackets() throws Exception {
+        Metrics metrics = Metrics.getInstance();
+        long before = metrics.get(Metrics.Counter.PACKETS_PARSED);
+        GbpPacketParser parser = new GbpPacketParser(new GbpPrintBuilder());
+        parser.feed(Captures.load(Captures.CAMERA));
+        // init, nine fills, the empty fill, print, and the status inquiries in between
+        Assert.assertTrue(metrics.get(Metrics.Counter.PACKETS_PARSED) - before >= 12);
+    }
+}
@@ -27,7 +27,7 @@ import com.facebook.react.bridge.WritableMap;
 import org.junit.Assert;
 
 public class MockPromise implements Promise {
-    private boolean consumed = false;
+    private volatile boolean consumed = false;
     private @Nullable Object value = null;
     private @Nullable Throwable error = null;
 
@@ -98,8 +98,20 @@ public class MockPromise implements Promise {
         this.reject(s, null, new RuntimeException(s), null);
     }
 
+    public boolean isConsumed() {
+        return this.consumed;
+    }
+
+    public void await() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!this.consumed) {
+            Assert.assertTrue("promise was never settled", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
     public Object get() throws Throwable {
-        Assert.assertTrue(this.consumed);
+        this.await();
         if (this.error != null) {
             throw this.error;
         }
@@ -0,0 +1,141 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(application = TestApplication.class)
+public class PhotoPrintTest {
+    /** Consumes packets like a printer, collecting the tiles and the print commands. */
+    private static class FakePrinter implements GbpPacketParser.Listener {
+        final GbpPrintBuilder builder = new GbpPrintBuilder();
+        final List<Integer> margins = new ArrayList<>();
+        int compressed = 0;
+        String error = null;
+
+        @Override
+        public void onPacket(int command, int compression, @NonNull byte[] payload, int size) {
+            if (command == GbpPacketParser.COMMAND_PRINT) {
+                Assert.assertEquals(PhotoConverter.PALETTE, payload[2] & 0xff);
+                this.margins.add(payload[1] & 0xff);
+            }
+            if (compression != 0) {
+                this.compressed++;
+            }
+            this.builder.onPacket(command, compression, payload, size);
+        }
+
+        @Override
+        public void onError(@NonNull String message) {
+            this.error = message;
+        }
+    }
+
+    /** A photo with brightness increasing from left to right, and dark blobs to compress poorly. */
+    private static int[] createPhoto(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = x * 255 / (width - 1);
+                if (y > height / 2 && ((x / 7) ^ (y / 5)) % 3 == 0) value /= 2;
+                pixels[y * width + x] = 0xff000000 | (value * 0x010101);
+            }
+        }
+        return pixels;
+    }
+
+    @Test
+    public void convertsPhotosToTiles() {
+        final int WIDTH = 320;
+        final int HEIGHT = 100;
+        int[] pixels = createPhoto(WIDTH, HEIGHT);
+        Assert.assertEquals(64, PhotoConverter.getScaledHeight(WIDTH, HEIGHT));
+        for (int dither : new int[]{ PhotoConverter.DITHER_ORDERED, PhotoConverter.DITHER_FLOYD_STEINBERG }) {
+            byte[] tiles = PhotoConverter.convert(pixels, WIDTH, HEIGHT, dither);
+            Assert.assertEquals(64 / 8 * GbpPrint.TILE_ROW_BYTES, tiles.length);
+            byte[] palettes = new byte[64 / 8];
+            Arrays.fill(palettes, (byte) PhotoConverter.PALETTE);
+            byte[] shades = TileRenderer.renderShades(tiles, palettes);
+            // the average shade of each column follows the brightness of the ramp
+            for (int x = 0; x < GbpPrint.WIDTH; x += 16) {
+                int sum = 0;
+                for (int y = 0; y < 24; y++) {
+                    for (int k = 0; k < 16; k++) {
+                        sum += shades[y * GbpPrint.WIDTH + x + k];
+                    }
+                }
+                double expected = (x + 7.5) * 255 / (GbpPrint.WIDTH - 1) / 85;
+                Assert.assertEquals(expected, sum / (24.0 * 16), 0.25);
+            }
+            // the rows below the photo are blank
+            for (int i = 50 * GbpPrint.WIDTH; i < shades.length; i++) {
+                Assert.assertEquals(3, shades[i]);
+            }
+        }
+        Assert.assertThrows(IllegalArgumentException.class, () -> PhotoConverter.convert(pixels, WIDTH, HEIGHT, 2));
+        Assert.assertThrows(IllegalArgumentException.class, () -> PhotoConverter.convert(pixels, WIDTH, HEIGHT * 2, 0));
+    }
+
+    @Test
+    public void printsOnFakePrinter() throws Throwable {
+        // tall enough to be printed as several jobs
+        byte[] tiles = PhotoConverter.convert(createPhoto(480, 900), 480, 900, PhotoConverter.DITHER_ORDERED);
+        Assert.assertEquals(19, tiles.length / GbpPacketWriter.FILL_BYTES);
+
+        UsbSerialModule module = new UsbSerialModule(new ReactApplicationContext(RuntimeEnvironment.getApplication()));
+        FakeSerialPort fake = new FakeSerialPort();
+        module.connectPort(1, null, fake.port, new ConnectOptions());
+        PrintOptions options = new PrintOptions(PhotoConverter.DITHER_ORDERED, 0x13, 0x40, true, 0, 0);
+        MockPromise promise = new MockPromise();
+        module.sendPrint(1, tiles, options, promise);
+        Assert.assertNull(promise.get());
+        module.disconnectAll();
+
+        FakePrinter printer = new FakePrinter();
+        byte[] written = fake.getWritten();
+        new GbpPacketParser(printer).feed(written);
+        Assert.assertNull(printer.error);
+        Assert.assertEquals(Arrays.asList(0x10, 0x00, 0x03), printer.margins);
+        Assert.assertTrue(printer.compressed > 0);
+        GbpPrint print = printer.builder.finish();
+        Assert.assertNotNull(print);
+        Assert.assertArrayEquals(tiles, print.getTiles());
+
+        // compression must save more than it costs
+        int uncompressed = 0;
+        for (byte[] packet : GbpPacketWriter.createPrint(tiles, 0x13, 0x40, false)) {
+            uncompressed += packet.length;
+        }
+        Assert.assertTrue(written.length < uncompressed);
+    }
+}
@@ -22,14 +22,24 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.util.Base64;
 
+import com.facebook.react.bridge.JavaOnlyArray;
+
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(application = TestApplication.class)
@@ -40,6 +50,22 @@ public class PngEncoderTest {
         return buffer.array();
     }
 
+    private static void assertPixels(byte[] png, byte[] indices, int width, int height, int scale) throws Exception {
+        assertPixels(png, indices, width, height, scale, TileRenderer.DEFAULT_PALETTE);
+    }
+
+    private static void assertPixels(byte[] png, byte[] indices, int width, int height, int scale, int[] palette) throws Exception {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        Assert.assertEquals(width * scale, image.getWidth());
+        Assert.assertEquals(height * scale, image.getHeight());
+        for (int y = 0; y < height * scale; y++) {
+            for (int x = 0; x < width * scale; x++) {
+                int expected = palette[indices[(y / scale) * width + (x / scale)]];
+                Assert.assertEquals(expected, image.getRGB(x, y));
+            }
+        }
+    }
+
     @Test
     public void encodesCorrectly() throws Throwable {
         // note - tests seem to fail when alpha value is not 255, not an issue for us though since
@@ -88,4 +114,192 @@ public class PngEncoderTest {
             promise.get();
         });
     }
+
+    @Test
+    public void rendersTiles() throws Throwable {
+        // one row of tiles, where the first row of pixels in the first tile uses color 1
+        byte[] tiles = new byte[GbpPrint.TILE_ROW_BYTES];
+        tiles[0] = (byte) 0xff;
+        final int SCALE = 2;
+        MockPromise promise = new MockPromise();
+        new PngEncoderModule(null)
+                .renderTiles(Base64.encodeToString(tiles, 0), JavaOnlyArray.of(0xe4), SCALE, promise);
+        byte[] compressed = Base64.decode((String) promise.get(), 0);
+        Bitmap decompressed = BitmapFactory.decodeByteArray(compressed, 0, compressed.length);
+        Assert.assertEquals(GbpPrint.WIDTH * SCALE, decompressed.getWidth());
+        Assert.assertEquals(8 * SCALE, decompressed.getHeight());
+        Assert.assertEquals(0xffaaaaaa, decompressed.getPixel(0, 0));
+        Assert.assertEquals(0xffaaaaaa, decompressed.getPixel(8 * SCALE - 1, SCALE - 1));
+        Assert.assertEquals(0xffffffff, decompressed.getPixel(8 * SCALE, 0));
+        Assert.assertEquals(0xffffffff, decompressed.getPixel(0, SCALE));
+    }
+
+    @Test
+    public void rejectsIfMissingPalettes() {
+        Assert.assertThrows(Throwable.class, () -> {
+            MockPromise promise = new MockPromise();
+            new PngEncoderModule(null)
+                    .renderTiles(Base64.encodeToString(new byte[GbpPrint.TILE_ROW_BYTES], 0), new JavaOnlyArray(), 1, promise);
+            promise.get();
+        });
+    }
+
+    @Test
+    public void writesIndexedPngExactly() {
+        byte[] expected = new byte[]{
+                (byte) 0x89, 0x50, 0x4e, 0x47, 0x0d, 0x0a, 0x1a, 0x0a,
+                // IHDR
+                0x00, 0x00, 0x00, 0x0d, 0x49, 0x48, 0x44, 0x52,
+                0x00, 0x00, 0x00, 0x04, 0x00, 0x00, 0x00, 0x02, 0x02, 0x03, 0x00, 0x00, 0x00,
+                0x02, (byte) 0xc6, (byte) 0x95, (byte) 0xf0,
+                // PLTE
+                0x00, 0x00, 0x00, 0x0c, 0x50, 0x4c, 0x54, 0x45,
+                0x00, 0x00, 0x00, 0x55, 0x55, 0x55, (byte) 0xaa, (byte) 0xaa, (byte) 0xaa, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+                (byte) 0xc1, 0x7f, 0x62, (byte) 0xd1,
+                // IDAT
+                0x00, 0x00, 0x00, 0x0f, 0x49, 0x44, 0x41, 0x54,
+                0x78, 0x01, 0x01, 0x04, 0x00, (byte) 0xfb, (byte) 0xff, 0x00, 0x1b, 0x00, (byte) 0xe4,
+                0x01, 0x39, 0x01, 0x00, 0x27, (byte) 0xd7, 0x7a, 0x3a,
+                // IEND
+                0x00, 0x00, 0x00, 0x00, 0x49, 0x45, 0x4e, 0x44, (byte) 0xae, 0x42, 0x60, (byte) 0x82,
+        };
+        byte[] indices = new byte[]{ 0, 1, 2, 3, 3, 2, 1, 0 };
+        byte[] actual = new IndexedPngWriter(Deflater.NO_COMPRESSION, Deflater.DEFAULT_STRATEGY, IndexedPngWriter.FILTER_NONE)
+                .encode(indices, 4, 2, TileRenderer.DEFAULT_PALETTE, 1);
+        Assert.assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void writesIndexedPngWithEveryFilter() throws Exception {
+        final int WIDTH = 13;
+        final int HEIGHT = 7;
+        byte[] indices = new byte[WIDTH * HEIGHT];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = (byte) ((i * 7 + i / 5) & 3);
+        }
+        for (int filter = IndexedPngWriter.FILTER_NONE; filter <= IndexedPngWriter.FILTER_ADAPTIVE; filter++) {
+            for (int scale = 1; scale <= 3; scale++) {
+                byte[] png = new IndexedPngWriter(Deflater.BEST_COMPRESSION, Deflater.FILTERED, filter)
+                        .encode(indices, WIDTH, HEIGHT, TileRenderer.DEFAULT_PALETTE, scale);
+                assertPixels(png, indices, WIDTH, HEIGHT, scale);
+            }
+        }
+    }
+
+    @Test
+    public void writesIndexedPngInParallel() throws Exception {
+        // tall enough to be split into several bands at every scale
+        final int HEIGHT = 4000;
+        byte[] indices = new byte[GbpPrint.WIDTH * HEIGHT];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = (byte) ((i / 7 + i / GbpPrint.WIDTH / 3) & 3);
+        }
+        for (int filter = IndexedPngWriter.FILTER_NONE; filter <= IndexedPngWriter.FILTER_ADAPTIVE; filter++) {
+            for (int scale = 1; scale <= 2; scale++) {
+                byte[] png = new IndexedPngWriter(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, filter)
+                        .encodeParallel(indices, GbpPrint.WIDTH, HEIGHT, TileRenderer.DEFAULT_PALETTE, scale, ForkJoinPool.commonPool());
+                assertPixels(png, indices, GbpPrint.WIDTH, HEIGHT, scale);
+            }
+        }
+    }
+
+    @Test
+    public void combinesAdler32() {
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31 + i / 1000);
+        }
+        Adler32 whole = new Adler32();
+        whole.update(data, 0, data.length);
+        for (int split : new int[]{ 0, 1, 5552, 65521, 99999 }) {
+            Adler32 first = new Adler32();
+            first.update(data, 0, split);
+            Adler32 second = new Adler32();
+            second.update(data, split, data.length - split);
+            Assert.assertEquals(whole.getValue(),
+                    IndexedPngWriter.combineAdler32(first.getValue(), second.getValue(), data.length - split));
+        }
+    }
+
+    @Test
+    public void replacesPalette() throws Exception {
+        final int HEIGHT = 100;
+        byte[] indices = new byte[GbpPrint.WIDTH * HEIGHT];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = (byte) ((i / 3 + i / GbpPrint.WIDTH) & 3);
+        }
+        byte[] png = new IndexedPngWriter().encode(indices, GbpPrint.WIDTH, HEIGHT, TileRenderer.DEFAULT_PALETTE, 2);
+        int[] green = { 0xff0f380f, 0xff306230, 0xff8bac0f, 0xff9bbc0f };
+        byte[] recolored = IndexedPngWriter.replacePalette(png, green);
+        assertPixels(recolored, indices, GbpPrint.WIDTH, HEIGHT, 2, green);
+        // everything but the palette and its checksum is copied as is
+        Assert.assertEquals(png.length, recolored.length);
+        int plte = 8 + 25;
+        Assert.assertArrayEquals(Arrays.copyOf(png, plte + 8), Arrays.copyOf(recolored, plte + 8));
+        Assert.assertArrayEquals(Arrays.copyOfRange(png, plte + 24, png.length), Arrays.copyOfRange(recolored, plte + 24, png.length));
+
+        Assert.assertThrows(IllegalArgumentException.class, () -> IndexedPngWriter.replacePalette(png, new int[]{ 0, 0, 0 }));
+        Assert.assertThrows(IllegalArgumentException.class, () -> IndexedPngWriter.replacePalette(new byte[]{ 1, 2, 3 }, green));
+        Assert.assertThrows(IllegalArgumentException.class, () -> IndexedPngWriter.replacePalette(Arrays.copyOf(png, 40), green));
+    }
+
+    @Test
+    public void encodesFewColorsAsIndexed() throws Throwable {
+        int[] pixels = new int[]{
+                0xff000000, 0xffffffff, 0xff555555,
+                0xffaaaaaa, 0xff000000, 0xffffffff,
+        };
+        MockPromise promise = new MockPromise();
+        new PngEncoderModule(null)
+                .encode(Base64.encodeToString(intsToBytes(pixels), 0), 3, 2, promise);
+        byte[] compressed = Base64.decode((String) promise.get(), 0);
+        // color type is stored after the width, height and bit depth in IHDR
+        Assert.assertEquals(3, compressed[25]);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(compressed));
+        for (int i = 0; i < pixels.length; i++) {
+            Assert.assertEquals(pixels[i], image.getRGB(i % 3, i / 3));
+        }
+    }
+
+    @Test
+    public void encodesImageInBands() throws Throwable {
+        byte[] tiles = new byte[GbpPrint.TILE_ROW_BYTES * 2];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = (byte) (i * 31);
+        }
+        PngEncoderModule module = new PngEncoderModule(null);
+        MockPromise whole = new MockPromise();
+        module.renderTiles(Base64.encodeToString(tiles, 0), JavaOnlyArray.of(0xe4, 0x1b), 2, whole);
+
+        MockPromise begin = new MockPromise();
+        module.beginImage(2, begin);
+        int id = (Integer) begin.get();
+        for (int row = 0; row < 2; row++) {
+            MockPromise append = new MockPromise();
+            String band = Base64.encodeToString(tiles, row * GbpPrint.TILE_ROW_BYTES, GbpPrint.TILE_ROW_BYTES, 0);
+            module.appendRows(id, band, JavaOnlyArray.of(row == 0 ? 0xe4 : 0x1b), append);
+            append.get();
+        }
+        MockPromise finish = new MockPromise();
+        module.finishImage(id, finish);
+
+        BufferedImage expected = ImageIO.read(new ByteArrayInputStream(Base64.decode((String) whole.get(), 0)));
+        BufferedImage actual = ImageIO.read(new ByteArrayInputStream(Base64.decode((String) finish.get(), 0)));
+        Assert.assertEquals(GbpPrint.WIDTH * 2, actual.getWidth());
+        Assert.assertEquals(32, actual.getHeight());
+        for (int y = 0; y < actual.getHeight(); y++) {
+            for (int x = 0; x < actual.getWidth(); x++) {
+                Assert.assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void rejectsUnknownSession() {
+        Assert.assertThrows(Throwable.class, () -> {
+            MockPromise promise = new MockPromise();
+            new PngEncoderModule(null).finishImage(-1, promise);
+            promise.get();
+        });
+    }
 }
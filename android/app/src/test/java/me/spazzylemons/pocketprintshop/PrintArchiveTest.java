@@ -0,0 +1,141 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(application = TestApplication.class)
+public class PrintArchiveTest {
+    private static PrintArchive.Record loadRecord(String name, long timestamp) throws IOException {
+        GbpPrint print = Captures.parse(name);
+        return new PrintArchive.Record(timestamp, 0x13, new PrintStore.Tiles(print.getTiles(), print.getPalettes()));
+    }
+
+    private static void assertRecordEquals(PrintArchive.Record expected, PrintArchive.Record actual) {
+        Assert.assertEquals(expected.timestamp, actual.timestamp);
+        Assert.assertEquals(expected.margins, actual.margins);
+        Assert.assertArrayEquals(expected.tiles.tiles, actual.tiles.tiles);
+        Assert.assertArrayEquals(expected.tiles.palettes, actual.tiles.palettes);
+    }
+
+    @Test
+    public void appendsAndReadsRecords() throws Exception {
+        File file = File.createTempFile("prints", ".gbpa");
+        List<PrintArchive.Record> records = new ArrayList<>();
+        for (int i = 0; i < Captures.ALL.length; i++) {
+            records.add(loadRecord(Captures.ALL[i], 1000L + i));
+        }
+        PrintArchive.append(file, records);
+
+        int rawSize = 0;
+        for (PrintArchive.Record record : records) {
+            rawSize += record.tiles.tiles.length;
+        }
+        // camera pictures compress poorly, but the others are mostly blank
+        Assert.assertTrue(file.length() < rawSize);
+
+        try (PrintArchive archive = new PrintArchive(file)) {
+            Assert.assertEquals(records.size(), archive.size());
+            // records can be read in any order
+            for (int i = records.size() - 1; i >= 0; i--) {
+                Assert.assertEquals(records.get(i).timestamp, archive.getTimestamp(i));
+                assertRecordEquals(records.get(i), archive.read(i));
+            }
+        }
+    }
+
+    @Test
+    public void appendsAndRecoversWithoutIndex() throws Exception {
+        File file = new File(Files.createTempDirectory("archive").toFile(), "prints.gbpa");
+        PrintArchive.Record first = loadRecord(Captures.CAMERA, 1);
+        PrintArchive.Record second = loadRecord(Captures.PALETTE, 2);
+        PrintArchive.Record third = loadRecord(Captures.COMPRESSION, 3);
+        PrintArchive.append(file, Collections.singletonList(first));
+        PrintArchive.append(file, Collections.singletonList(second));
+        try (PrintArchive archive = new PrintArchive(file)) {
+            Assert.assertEquals(2, archive.size());
+            assertRecordEquals(second, archive.read(1));
+        }
+
+        // cut the file in the middle of the index, as if appending was interrupted
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 12);
+        }
+        try (PrintArchive archive = new PrintArchive(file)) {
+            Assert.assertEquals(2, archive.size());
+            assertRecordEquals(first, archive.read(0));
+            assertRecordEquals(second, archive.read(1));
+        }
+        PrintArchive.append(file, Collections.singletonList(third));
+        try (PrintArchive archive = new PrintArchive(file)) {
+            Assert.assertEquals(3, archive.size());
+            assertRecordEquals(third, archive.read(2));
+        }
+
+        Files.write(file.toPath(), new byte[]{ 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+        Assert.assertThrows(IOException.class, () -> new PrintArchive(file));
+    }
+
+    @Test
+    public void encodesRunLengths() {
+        Random random = new Random(1);
+        for (int length : new int[]{ 0, 1, 2, 3, 127, 128, 129, 130, 1000 }) {
+            byte[] data = new byte[length];
+            int i = 0;
+            while (i < length) {
+                // mix runs of every length with literal data
+                int run = Math.min(length - i, random.nextInt(200));
+                Arrays.fill(data, i, i + run, (byte) random.nextInt(4));
+                i += run;
+                for (int k = random.nextInt(200); k > 0 && i < length; k--) {
+                    data[i++] = (byte) random.nextInt();
+                }
+            }
+            byte[] encoded = new byte[GbpRle.getMaxEncodedLength(length)];
+            int encodedLength = GbpRle.encode(data, 0, length, encoded, 0);
+            Assert.assertEquals(length, GbpRle.getDecodedLength(encoded, 0, encodedLength));
+            byte[] decoded = new byte[length + 1];
+            Assert.assertEquals(length, GbpRle.decode(encoded, 0, encodedLength, decoded, 1));
+            Assert.assertArrayEquals(data, Arrays.copyOfRange(decoded, 1, length + 1));
+        }
+        byte[] blank = new byte[640];
+        byte[] encoded = new byte[GbpRle.getMaxEncodedLength(blank.length)];
+        Assert.assertEquals(10, GbpRle.encode(blank, 0, blank.length, encoded, 0));
+        Assert.assertEquals(640, GbpRle.getDecodedLength(encoded, 0, 10));
+        // the last run is missing its value
+        Assert.assertEquals(-1, GbpRle.getDecodedLength(encoded, 0, 9));
+        // the literal is missing a byte
+        Assert.assertEquals(-1, GbpRle.getDecodedLength(new byte[]{ 2, 0, 0 }, 0, 3));
+    }
+}
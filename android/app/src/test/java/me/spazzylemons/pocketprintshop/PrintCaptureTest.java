@@ -0,0 +1,88 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(application = TestApplication.class)
+public class PrintCaptureTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<GbpPrint> prints = new CopyOnWriteArrayList<>();
+    private final PrintCapture capture = new PrintCapture(
+            new IndexedPngWriter(), this.scheduler, Runnable::run, (print, png) -> this.prints.add(print));
+
+    @After
+    public void tearDown() {
+        this.scheduler.shutdownNow();
+    }
+
+    @Test
+    public void finishesAtStatusAfterPrint() throws Exception {
+        // the camera feeds paper after printing and then polls the status
+        this.capture.feed(Captures.load(Captures.CAMERA));
+        Assert.assertEquals(1, this.prints.size());
+        Assert.assertEquals(144, this.prints.get(0).getHeight());
+    }
+
+    @Test
+    public void finishesPrintsInOneChunk() throws Exception {
+        // the second print starts right after the first one finishes, in the same chunk of data
+        byte[] camera = Captures.load(Captures.CAMERA);
+        int length = Captures.findPrintEnd(camera) + 1;
+        byte[] data = new byte[length * 2];
+        System.arraycopy(camera, 0, data, 0, length);
+        System.arraycopy(camera, 0, data, length, length);
+        this.capture.feed(data);
+        Assert.assertEquals(2, this.prints.size());
+        Assert.assertEquals(144, this.prints.get(0).getHeight());
+        Assert.assertEquals(144, this.prints.get(1).getHeight());
+    }
+
+    @Test
+    public void keepsBandsWithoutFeed() throws Exception {
+        // only the last print command of the multiprint capture feeds paper, so both bands make one print
+        this.capture.feed(Captures.load(Captures.MULTIPRINT));
+        Assert.assertEquals(1, this.prints.size());
+        Assert.assertEquals(192, this.prints.get(0).getHeight());
+    }
+
+    @Test
+    public void fallsBackToIdleTimeout() throws Exception {
+        // this game does not feed paper after printing, so the print ends when the data stops
+        this.capture.feed(Captures.load(Captures.PALETTE));
+        Assert.assertTrue(this.prints.isEmpty());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (this.prints.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, this.prints.size());
+        Assert.assertEquals(144, this.prints.get(0).getHeight());
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import android.net.Uri;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.ReactApplicationContext;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.nio.file.Files;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(application = TestApplication.class)
+public class PrintStoreModuleTest {
+    @Test
+    public void recolorsToCacheFiles() throws Throwable {
+        ReactApplicationContext context = new ReactApplicationContext(RuntimeEnvironment.getApplication());
+        PrintStoreModule module = new PrintStoreModule(context);
+        GbpPrint print = Captures.parse(Captures.CAMERA);
+        byte[] shades = TileRenderer.renderShades(print.getTiles(), print.getPalettes());
+        byte[] png = new IndexedPngWriter().encode(
+                shades, GbpPrint.WIDTH, print.getHeight(), TileRenderer.DEFAULT_PALETTE, PrintCapture.PRINT_SCALE);
+        String id = PrintStore.getInstance(context).save(print, png).id;
+
+        int[] green = { 0xff0f380f, 0xff306230, 0xff8bac0f, 0xff9bbc0f };
+        MockPromise promise = new MockPromise();
+        module.recolor(id, JavaOnlyArray.of(0x0f380f, 0x306230, 0x8bac0f, 0x9bbc0f), promise);
+        String uri = (String) promise.get();
+        File file = new File(Uri.parse(uri).getPath());
+        Assert.assertEquals(new File(context.getCacheDir(), "recolor"), file.getParentFile());
+        Assert.assertArrayEquals(IndexedPngWriter.replacePalette(png, green), Files.readAllBytes(file.toPath()));
+
+        // the same colors are served from the same file
+        MockPromise again = new MockPromise();
+        module.recolor(id, JavaOnlyArray.of(0x0f380f, 0x306230, 0x8bac0f, 0x9bbc0f), again);
+        Assert.assertEquals(uri, again.get());
+        MockPromise other = new MockPromise();
+        module.recolor(id, JavaOnlyArray.of(0x000000, 0x555555, 0xaaaaaa, 0xffffff), other);
+        Assert.assertNotEquals(uri, other.get());
+
+        MockPromise removed = new MockPromise();
+        module.remove(id, removed);
+        removed.get();
+        Assert.assertFalse(file.exists());
+        Assert.assertFalse(new File(Uri.parse((String) other.get()).getPath()).exists());
+    }
+}
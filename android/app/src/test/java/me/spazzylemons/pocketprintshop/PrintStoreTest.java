@@ -0,0 +1,107 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(application = TestApplication.class)
+public class PrintStoreTest {
+    @Test
+    public void savesAndListsPrints() throws Exception {
+        File directory = Files.createTempDirectory("prints").toFile();
+        PrintStore store = new PrintStore(directory);
+        GbpPrint first = Captures.parse(Captures.CAMERA);
+        GbpPrint second = Captures.parse(Captures.COMPRESSION);
+        byte[] png = new byte[]{ 1, 2, 3 };
+        PrintStore.Entry firstEntry = store.save(first, png);
+        PrintStore.Entry secondEntry = store.save(second, png);
+        Assert.assertNotEquals(firstEntry.id, secondEntry.id);
+        Assert.assertArrayEquals(png, Files.readAllBytes(firstEntry.png.toPath()));
+
+        // a new store must see the same prints without the cache
+        List<PrintStore.Entry> entries = new PrintStore(directory).list();
+        Assert.assertEquals(2, entries.size());
+        Assert.assertEquals(firstEntry.id, entries.get(0).id);
+        Assert.assertEquals(first.getHeight(), entries.get(0).height);
+        Assert.assertEquals(secondEntry.id, entries.get(1).id);
+        Assert.assertEquals(second.getHeight(), entries.get(1).height);
+    }
+
+    @Test
+    public void loadsTiles() throws Exception {
+        File directory = Files.createTempDirectory("prints").toFile();
+        GbpPrint print = Captures.parse(Captures.PALETTE);
+        String id = new PrintStore(directory).save(print, new byte[0]).id;
+        PrintStore.Tiles tiles = new PrintStore(directory).loadTiles(id);
+        Assert.assertArrayEquals(print.getTiles(), tiles.tiles);
+        Assert.assertArrayEquals(print.getPalettes(), tiles.palettes);
+    }
+
+    @Test
+    public void removesPrints() throws Exception {
+        File directory = Files.createTempDirectory("prints").toFile();
+        PrintStore store = new PrintStore(directory);
+        String id = store.save(Captures.parse(Captures.CAMERA), new byte[0]).id;
+        store.remove(id);
+        Assert.assertTrue(store.list().isEmpty());
+        Assert.assertThrows(IOException.class, () -> store.loadTiles(id));
+    }
+
+    @Test
+    public void exportsAndImportsWithoutDuplicates() throws Exception {
+        PrintStore store = new PrintStore(Files.createTempDirectory("prints").toFile());
+        PrintStore.Entry first = store.save(Captures.parse(Captures.CAMERA), new byte[0]);
+        File file = new File(Files.createTempDirectory("archive").toFile(), "prints.gbpa");
+        Assert.assertEquals(1, store.exportArchive(file));
+        Assert.assertEquals(0, store.exportArchive(file));
+        PrintStore.Entry second = store.save(Captures.parse(Captures.PALETTE), new byte[0]);
+        // only the new print is appended
+        Assert.assertEquals(1, store.exportArchive(file));
+
+        PrintStore other = new PrintStore(Files.createTempDirectory("prints").toFile());
+        Assert.assertNotNull(other.save(Long.parseLong(second.id), store.loadTiles(second.id), new byte[0]));
+        try (PrintArchive archive = new PrintArchive(file)) {
+            Assert.assertEquals(2, archive.size());
+            for (int i = 0; i < archive.size(); i++) {
+                other.save(archive.getTimestamp(i), archive.read(i).tiles, new byte[0]);
+            }
+            // importing again stores nothing
+            Assert.assertNull(other.save(archive.getTimestamp(0), archive.read(0).tiles, new byte[0]));
+        }
+        List<PrintStore.Entry> entries = other.list();
+        Assert.assertEquals(2, entries.size());
+        Assert.assertEquals(first.id, entries.get(0).id);
+        Assert.assertEquals(second.id, entries.get(1).id);
+        Assert.assertArrayEquals(store.loadTiles(first.id).tiles, other.loadTiles(first.id).tiles);
+
+        // prints saved later still get later IDs
+        PrintStore.Entry third = other.save(Captures.parse(Captures.COMPRESSION), new byte[0]);
+        Assert.assertTrue(Long.parseLong(third.id) > Long.parseLong(second.id));
+    }
+}
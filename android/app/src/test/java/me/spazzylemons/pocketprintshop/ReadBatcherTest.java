@@ -0,0 +1,92 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(application = TestApplication.class)
+public class ReadBatcherTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        this.scheduler.shutdownNow();
+    }
+
+    @Test
+    public void flushesFullBatchesInOrder() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int[] flushes = { 0 };
+        ReadBatcher batcher = new ReadBatcher((data, length) -> {
+            out.write(data, 0, length);
+            flushes[0]++;
+        }, this.scheduler, 60000, 4);
+        batcher.append(new byte[]{ 1, 2, 3 });
+        Assert.assertEquals(0, flushes[0]);
+        batcher.append(new byte[]{ 4, 5, 6, 7, 8, 9 });
+        Assert.assertEquals(2, flushes[0]);
+        batcher.flush();
+        Assert.assertArrayEquals(new byte[]{ 1, 2, 3, 4, 5, 6, 7, 8, 9 }, out.toByteArray());
+        batcher.close();
+    }
+
+    @Test
+    public void appendsWhileSinkRuns() throws Exception {
+        CountDownLatch inSink = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ReadBatcher batcher = new ReadBatcher((data, length) -> {
+            inSink.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            out.write(data, 0, length);
+        }, this.scheduler, 1, 16);
+        batcher.append(new byte[]{ 1 });
+        // the scheduled flush is now blocked in the sink
+        Assert.assertTrue(inSink.await(5, TimeUnit.SECONDS));
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        Future<?> append = reader.submit(() -> batcher.append(new byte[]{ 2 }));
+        try {
+            append.get(5, TimeUnit.SECONDS);
+        } finally {
+            reader.shutdown();
+        }
+        release.countDown();
+        batcher.flush();
+        Assert.assertArrayEquals(new byte[]{ 1, 2 }, out.toByteArray());
+        batcher.close();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * A serial port that plays back a packet capture, either as fast as it is read, or paced to the
+ * baud rate that the port is configured with. Writes are accepted and ignored.
+ */
+public class SerialReplaySource implements InvocationHandler {
+    /** The number of bits on the wire for each byte: a start bit, 8 data bits and a stop bit. */
+    private static final int BITS_PER_BYTE = 10;
+    /** The packet size of a full-speed bulk endpoint. */
+    private static final int MAX_PACKET_SIZE = 64;
+
+    private final byte[] data;
+    private final boolean realTime;
+    private volatile boolean open = false;
+    private volatile int bytesPerSecond = 0;
+    private volatile int position = 0;
+    private volatile long startNanos = -1;
+    private volatile long finishNanos = -1;
+    private volatile int marker = -1;
+    private volatile long markerNanos = -1;
+
+    public final UsbSerialPort port = (UsbSerialPort) Proxy.newProxyInstance(
+            UsbSerialPort.class.getClassLoader(), new Class<?>[]{ UsbSerialPort.class }, this);
+
+    /**
+     * @param data     The capture to play back.
+     * @param realTime True to pace the data to the baud rate, false to send it as fast as possible.
+     */
+    public SerialReplaySource(byte[] data, boolean realTime) {
+        this.data = data;
+        this.realTime = realTime;
+    }
+
+    /** @return True once every byte of the capture has been read. */
+    public boolean isFinished() {
+        return this.finishNanos >= 0;
+    }
+
+    /** @return The number of bytes read so far. */
+    public int getPosition() {
+        return this.position;
+    }
+
+    /** @return The value of {@link System#nanoTime()} when the last byte was read. */
+    public long getFinishNanos() {
+        return this.finishNanos;
+    }
+
+    /**
+     * Record when a byte is read, to measure the latency from it.
+     * @param offset The offset of the byte in the capture.
+     */
+    public void setMarker(int offset) {
+        this.marker = offset;
+    }
+
+    /** @return The offset of the marked byte, or -1 if none. */
+    public int getMarker() {
+        return this.marker;
+    }
+
+    /** @return The value of {@link System#nanoTime()} when the marked byte was read, or -1 if not yet read. */
+    public long getMarkerNanos() {
+        return this.markerNanos;
+    }
+
+    /** @return The value of {@link System#nanoTime()} when the first byte was read. */
+    public long getStartNanos() {
+        return this.startNanos;
+    }
+
+    private int read(byte[] buffer) throws IOException, InterruptedException {
+        if (!this.open) throw new IOException("port closed");
+        long now = System.nanoTime();
+        if (this.startNanos < 0) this.startNanos = now;
+        int available = this.data.length - this.position;
+        if (this.realTime && this.bytesPerSecond > 0) {
+            long due = (now - this.startNanos) * this.bytesPerSecond / 1_000_000_000L;
+            available = (int) Math.min(available, due - this.position);
+        }
+        if (available <= 0) {
+            // nothing to send yet, so wait like a read with a short timeout
+            Thread.sleep(1);
+            return 0;
+        }
+        int count = Math.min(available, buffer.length);
+        System.arraycopy(this.data, this.position, buffer, 0, count);
+        this.position += count;
+        if (this.marker >= 0 && this.markerNanos < 0 && this.position > this.marker) {
+            this.markerNanos = System.nanoTime();
+        }
+        if (this.position == this.data.length) {
+            this.finishNanos = System.nanoTime();
+        }
+        return count;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "open":
+                this.open = true;
+                return null;
+            case "close":
+                this.open = false;
+                return null;
+            case "isOpen":
+                return this.open;
+            case "setParameters":
+                this.bytesPerSecond = (Integer) args[0] / BITS_PER_BYTE;
+                return null;
+            case "read":
+                return this.read((byte[]) args[0]);
+            case "getReadEndpoint":
+            case "getWriteEndpoint":
+                return FakeSerialPort.createEndpoint(MAX_PACKET_SIZE);
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "SerialReplaySource";
+            default:
+                Class<?> type = method.getReturnType();
+                if (type == boolean.class) return false;
+                if (type == int.class) return 0;
+                return null;
+        }
+    }
+}
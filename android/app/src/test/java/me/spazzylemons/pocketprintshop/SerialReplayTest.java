@@ -0,0 +1,184 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.ReactApplicationContext;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Plays captures through the whole native pipeline, from the serial port to the saved print.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = TestApplication.class)
+public class SerialReplayTest {
+    private static final long TIMEOUT_MILLIS = 10000;
+    /** The longest time allowed from the last byte of a print to the saved print. */
+    private static final long MAX_LATENCY_MILLIS = 500;
+    /**
+     * The least throughput allowed when replaying as fast as possible, in bytes per second. This is
+     * over twenty times what 115200 baud can carry.
+     */
+    private static final long MIN_THROUGHPUT = 256 * 1024;
+    private static final String EXPECTED_IMAGE = "2020-08-17_Alice_in_Wonderland_palletsupporttest.expected.png";
+
+    private final ReactApplicationContext context = new ReactApplicationContext(RuntimeEnvironment.getApplication());
+    private final UsbSerialModule module = new UsbSerialModule(this.context);
+    private final PrintStore store = PrintStore.getInstance(this.context);
+    /** The value of {@link System#nanoTime()} when the last replay saw every print saved. */
+    private long savedNanos = -1;
+
+    private List<PrintStore.Entry> replay(List<SerialReplaySource> sources, ConnectOptions options) throws Exception {
+        Set<String> existing = new HashSet<>();
+        for (PrintStore.Entry entry : this.store.list()) {
+            existing.add(entry.id);
+        }
+        for (int i = 0; i < sources.size(); i++) {
+            this.module.connectPort(i, null, sources.get(i).port, options);
+        }
+        try {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (true) {
+                List<PrintStore.Entry> added = new ArrayList<>();
+                for (PrintStore.Entry entry : this.store.list()) {
+                    if (!existing.contains(entry.id)) added.add(entry);
+                }
+                if (added.size() >= sources.size()) {
+                    this.savedNanos = System.nanoTime();
+                    Assert.assertEquals(sources.size(), added.size());
+                    return added;
+                }
+                Assert.assertTrue("not every print was saved", System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+        } finally {
+            this.module.disconnectAll();
+        }
+    }
+
+    private PrintStore.Entry replay(SerialReplaySource source, ConnectOptions options) throws Exception {
+        return this.replay(Collections.singletonList(source), options).get(0);
+    }
+
+    /**
+     * Replay the camera capture and check the time from the last byte of the print to the saved print.
+     * @return The source, to check the transfer.
+     */
+    private SerialReplaySource replayWithLatency(boolean realTime, ConnectOptions options) throws Exception {
+        byte[] data = Captures.load(Captures.CAMERA);
+        SerialReplaySource source = new SerialReplaySource(data, realTime);
+        source.setMarker(Captures.findPrintEnd(data));
+        this.replay(source, options);
+        long latencyMillis = TimeUnit.NANOSECONDS.toMillis(this.savedNanos - source.getMarkerNanos());
+        Assert.assertTrue("print was saved before its last byte was read", source.getMarkerNanos() >= 0);
+        Assert.assertTrue("print saved " + latencyMillis + " ms after its last byte", latencyMillis <= MAX_LATENCY_MILLIS);
+        return source;
+    }
+
+    @Test
+    public void replaysEveryCapture() throws Exception {
+        for (String name : Captures.ALL) {
+            byte[] data = Captures.load(name);
+            GbpPrint expected = Captures.parse(name);
+
+            PrintStore.Entry entry = this.replay(new SerialReplaySource(data, false), new ConnectOptions());
+            Assert.assertEquals(name, expected.getHeight(), entry.height);
+            PrintStore.Tiles tiles = this.store.loadTiles(entry.id);
+            Assert.assertArrayEquals(name, expected.getTiles(), tiles.tiles);
+            Assert.assertArrayEquals(name, expected.getPalettes(), tiles.palettes);
+        }
+    }
+
+    @Test
+    public void replaysDevicesInParallel() throws Exception {
+        List<SerialReplaySource> sources = new ArrayList<>();
+        Set<Integer> expectedHeights = new HashSet<>();
+        for (String name : Captures.ALL) {
+            expectedHeights.add(Captures.parse(name).getHeight());
+            sources.add(new SerialReplaySource(Captures.load(name), true));
+        }
+        // each device has its own parser, so interleaved data still makes one print per device
+        Set<Integer> heights = new HashSet<>();
+        for (PrintStore.Entry entry : this.replay(sources, new ConnectOptions())) {
+            heights.add(entry.height);
+        }
+        Assert.assertEquals(expectedHeights, heights);
+    }
+
+    @Test
+    public void matchesExpectedImage() throws Exception {
+        PrintStore.Entry entry = this.replay(
+                new SerialReplaySource(Captures.load(Captures.PALETTE), false), new ConnectOptions());
+        BufferedImage expected = ImageIO.read(new File(Captures.DIRECTORY, EXPECTED_IMAGE));
+        BufferedImage actual = ImageIO.read(entry.png);
+        int scale = actual.getWidth() / expected.getWidth();
+        Assert.assertEquals(expected.getWidth() * scale, actual.getWidth());
+        Assert.assertEquals(expected.getHeight() * scale, actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                // the expected image uses slightly different grays, so compare the shade levels
+                int expectedShade = Math.round((expected.getRGB(x, y) & 0xff) / 85f);
+                int actualShade = Math.round((actual.getRGB(x * scale, y * scale) & 0xff) / 85f);
+                Assert.assertEquals("pixel " + x + ", " + y, expectedShade, actualShade);
+            }
+        }
+    }
+
+    @Test
+    public void replaysAsFastAsPossible() throws Exception {
+        SerialReplaySource source = this.replayWithLatency(false, new ConnectOptions());
+        long elapsedNanos = source.getMarkerNanos() - source.getStartNanos();
+        long throughput = (source.getMarker() + 1) * 1_000_000_000L / Math.max(elapsedNanos, 1);
+        Assert.assertTrue("read " + throughput + " bytes per second", throughput >= MIN_THROUGHPUT);
+    }
+
+    @Test
+    public void replaysAtBaudRate() throws Exception {
+        byte[] data = Captures.load(Captures.CAMERA);
+        int baudRate = 115200;
+        long start = System.nanoTime();
+        SerialReplaySource source = this.replayWithLatency(true, ConnectOptions.fromMap(JavaOnlyMap.of("baudRate", baudRate)));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        int sent = source.getPosition();
+
+        // the transfer takes as long as the link allows
+        long minimumMillis = sent * 10L * 1000 / baudRate;
+        Assert.assertTrue("transfer took " + elapsedMillis + " ms", elapsedMillis >= minimumMillis * 9 / 10);
+        // the print ends at the first status inquiry after the print command, while the game is
+        // still polling, rather than after the data stops
+        Assert.assertTrue("print finished after " + sent + " of " + data.length + " bytes", sent < data.length);
+    }
+}
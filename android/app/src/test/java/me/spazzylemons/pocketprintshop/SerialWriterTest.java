@@ -0,0 +1,78 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(application = TestApplication.class)
+public class SerialWriterTest {
+    @Test
+    public void writesFramesInOrder() throws Throwable {
+        FakeSerialPort fake = new FakeSerialPort();
+        fake.port.open(null);
+        try (SerialWriter writer = new SerialWriter(fake.port, 4)) {
+            MockPromise first = new MockPromise();
+            MockPromise second = new MockPromise();
+            writer.submit(new byte[]{ 1, 2 }, 0, first);
+            writer.submit(new byte[]{ 3 }, 100, second);
+            first.await();
+            second.await();
+            Assert.assertNull(first.get());
+            Assert.assertNull(second.get());
+            Assert.assertArrayEquals(new byte[]{ 1, 2, 3 }, fake.getWritten());
+        }
+    }
+
+    @Test
+    public void rejectsWhenQueueIsFull() throws Throwable {
+        FakeSerialPort fake = new FakeSerialPort();
+        fake.port.open(null);
+        fake.hold();
+        SerialWriter writer = new SerialWriter(fake.port, 1);
+        MockPromise blocked = new MockPromise();
+        writer.submit(new byte[]{ 1 }, 0, blocked);
+        // wait for the writer to take the first frame off the queue
+        while (writer.getQueueDepth() != 0) Thread.sleep(1);
+        MockPromise queued = new MockPromise();
+        writer.submit(new byte[]{ 2 }, 0, queued);
+        Assert.assertEquals(1, writer.getQueueDepth());
+        MockPromise overflow = new MockPromise();
+        writer.submit(new byte[]{ 3 }, 0, overflow);
+        Assert.assertThrows(IllegalStateException.class, overflow::get);
+
+        // closing rejects queued frames, and closing the port fails the write in progress
+        writer.close();
+        Assert.assertThrows(IOException.class, queued::get);
+        fake.port.close();
+        blocked.await();
+        Assert.assertThrows(Exception.class, blocked::get);
+
+        MockPromise late = new MockPromise();
+        writer.submit(new byte[]{ 4 }, 0, late);
+        Assert.assertThrows(IOException.class, late::get);
+        Assert.assertArrayEquals(new byte[0], fake.getWritten());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import android.net.Uri;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(application = TestApplication.class)
+public class ThumbnailCacheTest {
+    @Test
+    public void generatesThumbnailsFromTiles() throws Exception {
+        PrintStore store = new PrintStore(Files.createTempDirectory("prints").toFile());
+        GbpPrint print = Captures.parse(Captures.MULTIPRINT);
+        String id = store.save(print, new byte[0]).id;
+
+        ThumbnailCache cache = new ThumbnailCache(store, Files.createTempDirectory("thumbnails").toFile());
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(cache.generate(id)));
+        Assert.assertEquals(GbpPrint.WIDTH / ThumbnailCache.SCALE, image.getWidth());
+        Assert.assertEquals(print.getHeight() / ThumbnailCache.SCALE, image.getHeight());
+    }
+
+    @Test
+    public void servesThumbnailsFromFiles() throws Exception {
+        PrintStore store = new PrintStore(Files.createTempDirectory("prints").toFile());
+        String id = store.save(Captures.parse(Captures.MULTIPRINT), new byte[0]).id;
+        File directory = Files.createTempDirectory("thumbnails").toFile();
+        ThumbnailCache cache = new ThumbnailCache(store, directory);
+
+        File file = new File(directory, id + ".png");
+        String uri = cache.getUri(id);
+        Assert.assertEquals(Uri.fromFile(file).toString(), uri);
+        Assert.assertArrayEquals(cache.generate(id), Files.readAllBytes(file.toPath()));
+        // a file removed by the system is written again
+        Assert.assertTrue(file.delete());
+        Assert.assertEquals(uri, cache.getUri(id));
+        Assert.assertTrue(file.isFile());
+
+        cache.remove(id);
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void rejectsMissingPrints() throws Exception {
+        PrintStore store = new PrintStore(Files.createTempDirectory("prints").toFile());
+        File directory = Files.createTempDirectory("thumbnails").toFile();
+        ThumbnailCache cache = new ThumbnailCache(store, directory);
+        Assert.assertThrows(IOException.class, () -> cache.getUri("0"));
+        Assert.assertFalse(new File(directory, "0.png").exists());
+        String[] files = directory.list();
+        Assert.assertNotNull(files);
+        Assert.assertEquals(0, files.length);
+    }
+
+    @Test
+    public void shrinksToNearestShade() {
+        byte[] shades = {
+                0, 0, 3, 3,
+                0, 1, 3, 2,
+        };
+        Assert.assertArrayEquals(new byte[]{ 0, 3 }, ThumbnailCache.shrink(shades, 4, 2, 1));
+    }
+}
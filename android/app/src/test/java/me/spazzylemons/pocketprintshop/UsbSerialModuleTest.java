@@ -0,0 +1,145 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.ReactApplicationContext;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(application = TestApplication.class)
+public class UsbSerialModuleTest {
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 200;
+    private static final int DEVICES = 3;
+
+    private static UsbSerialModule createModule() {
+        return new UsbSerialModule(new ReactApplicationContext(RuntimeEnvironment.getApplication()));
+    }
+
+    @Test
+    public void writesToConnectedPort() throws Throwable {
+        UsbSerialModule module = createModule();
+        FakeSerialPort fake = new FakeSerialPort();
+        module.connectPort(1, null, fake.port, new ConnectOptions());
+        Assert.assertThrows(IllegalStateException.class,
+                () -> module.connectPort(1, null, new FakeSerialPort().port, new ConnectOptions()));
+        FakeSerialPort other = new FakeSerialPort();
+        module.connectPort(2, null, other.port, new ConnectOptions());
+
+        MockPromise promise = new MockPromise();
+        module.write(1, "AQID", 0, promise);
+        promise.await();
+        Assert.assertNull(promise.get());
+        Assert.assertArrayEquals(new byte[]{ 1, 2, 3 }, fake.getWritten());
+        Assert.assertArrayEquals(new byte[0], other.getWritten());
+
+        module.disconnect(1);
+        Assert.assertFalse(fake.isOpen());
+        Assert.assertTrue(other.isOpen());
+        MockPromise late = new MockPromise();
+        module.write(1, "AQID", 0, late);
+        Assert.assertThrows(IOException.class, late::get);
+        module.disconnectAll();
+        Assert.assertFalse(other.isOpen());
+    }
+
+    @Test
+    public void readsConnectOptions() {
+        JavaOnlyMap map = JavaOnlyMap.of("baudRate", 921600, "readBufferSize", 16384, "readRequests", 8);
+        ConnectOptions options = ConnectOptions.fromMap(map);
+        Assert.assertEquals(921600, options.baudRate);
+        Assert.assertEquals(16384, options.readBufferSize);
+        Assert.assertEquals(new ConnectOptions().readTimeout, options.readTimeout);
+        Assert.assertEquals(new ConnectOptions().threadPriority, options.threadPriority);
+        Assert.assertEquals(8, options.readRequests);
+        Assert.assertEquals(0, new ConnectOptions().readRequests);
+        Assert.assertEquals(ConnectOptions.DEFAULT_BAUD_RATE, ConnectOptions.fromMap(null).baudRate);
+        Assert.assertThrows(IllegalArgumentException.class, () -> ConnectOptions.fromMap(JavaOnlyMap.of("baudRate", 0)));
+        Assert.assertThrows(IllegalArgumentException.class, () -> ConnectOptions.fromMap(JavaOnlyMap.of("readTimeout", -1)));
+        Assert.assertThrows(IllegalArgumentException.class, () -> ConnectOptions.fromMap(JavaOnlyMap.of("readRequests", 65)));
+    }
+
+    @Test
+    public void survivesConcurrentConnectWriteAndDisconnect() throws Throwable {
+        UsbSerialModule module = createModule();
+        List<FakeSerialPort> ports = Collections.synchronizedList(new ArrayList<>());
+        List<MockPromise> promises = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            Random random = new Random(t);
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    int deviceId = random.nextInt(DEVICES);
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            FakeSerialPort fake = new FakeSerialPort();
+                            ports.add(fake);
+                            try {
+                                module.connectPort(deviceId, null, fake.port, new ConnectOptions());
+                            } catch (IllegalStateException | IOException e) {
+                                // another thread won the race
+                            }
+                            break;
+                        case 1:
+                            MockPromise promise = new MockPromise();
+                            promises.add(promise);
+                            module.write(deviceId, "AQID", 0, promise);
+                            break;
+                        default:
+                            module.disconnect(deviceId);
+                            break;
+                    }
+                }
+                return null;
+            }));
+        }
+        // a deadlock shows up as a timeout here
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+        module.disconnectAll();
+
+        // every write must be settled, and every port must be closed
+        for (MockPromise promise : promises) {
+            promise.await();
+        }
+        for (FakeSerialPort fake : ports) {
+            Assert.assertFalse(fake.isOpen());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds benchmark inputs from the packet captures.
+ */
+public class Fixtures {
+    /**
+     * Repeat the tile data of a print until it is tall enough.
+     * @param print    The print to repeat.
+     * @param tileRows The number of rows of tiles to produce.
+     * @return The tile data.
+     */
+    public static @NonNull byte[] repeatTiles(@NonNull GbpPrint print, int tileRows) {
+        byte[] source = print.getTiles();
+        byte[] result = new byte[tileRows * GbpPrint.TILE_ROW_BYTES];
+        for (int offset = 0; offset < result.length; offset += source.length) {
+            System.arraycopy(source, 0, result, offset, Math.min(source.length, result.length - offset));
+        }
+        return result;
+    }
+
+    /**
+     * Repeat the palettes of a print until it is tall enough.
+     * @param print    The print to repeat.
+     * @param tileRows The number of rows of tiles to produce.
+     * @return The palette byte for each row of tiles.
+     */
+    public static @NonNull byte[] repeatPalettes(@NonNull GbpPrint print, int tileRows) {
+        byte[] source = print.getPalettes();
+        byte[] result = new byte[tileRows];
+        for (int row = 0; row < tileRows; row++) {
+            result[row] = source[row % source.length];
+        }
+        return result;
+    }
+
+    /**
+     * Collect the payloads of the fill packets in a capture.
+     * @param name The file name of the capture.
+     * @return The payloads, trimmed to their sizes.
+     * @throws IOException If reading the capture fails.
+     */
+    public static @NonNull List<byte[]> loadFillPayloads(@NonNull String name) throws IOException {
+        List<byte[]> result = new ArrayList<>();
+        new GbpPacketParser(new GbpPacketParser.Listener() {
+            @Override
+            public void onPacket(int command, int compression, @NonNull byte[] payload, int size) {
+                if (command == GbpPacketParser.COMMAND_FILL && size > 0) {
+                    result.add(Arrays.copyOf(payload, size));
+                }
+            }
+
+            @Override
+            public void onError(@NonNull String message) {
+                throw new IllegalStateException(message);
+            }
+        }).feed(Captures.load(name));
+        return result;
+    }
+}
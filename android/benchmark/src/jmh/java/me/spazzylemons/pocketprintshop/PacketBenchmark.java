@@ -0,0 +1,120 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import androidx.annotation.NonNull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the stages of turning the serial stream into a print: framing and checksumming the
+ * packets, decompressing the RLE payloads, and the two together.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PacketBenchmark {
+    /** An uncompressed capture, dominated by payload checksumming. */
+    private byte[] uncompressed;
+    /** A compressed capture. */
+    private byte[] compressed;
+    /** The compressed payloads of the fill packets. */
+    private List<byte[]> compressedPayloads;
+    /** Counts packets without keeping them, so that only parsing is measured. */
+    private int packets;
+    /** Parses packets and discards them. */
+    private GbpPacketParser checksumParser;
+    /** Collects prints from the parser below. */
+    private GbpPrintBuilder builder;
+    /** Parses packets into the builder. */
+    private GbpPacketParser printParser;
+
+    @Setup
+    public void setup() throws IOException {
+        this.uncompressed = Captures.load(Captures.CAMERA);
+        this.compressed = Captures.load(Captures.COMPRESSION);
+        this.compressedPayloads = Fixtures.loadFillPayloads(Captures.COMPRESSION);
+        this.checksumParser = new GbpPacketParser(new GbpPacketParser.Listener() {
+            @Override
+            public void onPacket(int command, int compression, @NonNull byte[] payload, int size) {
+                PacketBenchmark.this.packets++;
+            }
+
+            @Override
+            public void onError(@NonNull String message) {
+                throw new IllegalStateException(message);
+            }
+        });
+        this.builder = new GbpPrintBuilder();
+        this.printParser = new GbpPacketParser(this.builder);
+    }
+
+    /**
+     * Frame and checksum every packet of an uncompressed capture.
+     */
+    @Benchmark
+    public int checksum() {
+        this.checksumParser.feed(this.uncompressed);
+        this.checksumParser.reset();
+        return this.packets;
+    }
+
+    /**
+     * Decompress every fill payload of a compressed capture.
+     */
+    @Benchmark
+    public void decompress(Blackhole blackhole) {
+        for (byte[] payload : this.compressedPayloads) {
+            this.builder.onPacket(GbpPacketParser.COMMAND_FILL, 1, payload, payload.length);
+        }
+        this.builder.onPacket(GbpPacketParser.COMMAND_PRINT, 0, new byte[0], 0);
+        blackhole.consume(this.builder.finish());
+    }
+
+    /**
+     * Parse an uncompressed capture into a print.
+     */
+    @Benchmark
+    public GbpPrint parseUncompressed() {
+        this.printParser.feed(this.uncompressed);
+        this.printParser.reset();
+        return this.builder.finish();
+    }
+
+    /**
+     * Parse a compressed capture into a print.
+     */
+    @Benchmark
+    public GbpPrint parseCompressed() {
+        this.printParser.feed(this.compressed);
+        this.printParser.reset();
+        return this.builder.finish();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding of prints as indexed PNGs, at heights from a single camera picture to a long
+ * banner, and at each scale the app can produce.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PngEncodeBenchmark {
+    /** The number of rows of tiles that an encoded band covers. */
+    private static final int BAND_TILE_ROWS = 2;
+
+    /** The height of the print in pixels. */
+    @Param({ "144", "576", "2304" })
+    public int rows;
+
+    /** The factor that the print is scaled by. */
+    @Param({ "1", "2", "4" })
+    public int scale;
+
+    /** The shades of the print. */
+    private byte[] shades;
+    /** The encoder under test. */
+    private IndexedPngWriter writer;
+
+    @Setup
+    public void setup() throws IOException {
+        GbpPrint print = Captures.parse(Captures.CAMERA);
+        int tileRows = this.rows / 8;
+        this.shades = TileRenderer.renderShades(
+                Fixtures.repeatTiles(print, tileRows), Fixtures.repeatPalettes(print, tileRows));
+        this.writer = new IndexedPngWriter();
+    }
+
+    /**
+     * Encode the whole print at once.
+     */
+    @Benchmark
+    public byte[] encode() {
+        return this.writer.encode(this.shades, GbpPrint.WIDTH, this.rows, TileRenderer.DEFAULT_PALETTE, this.scale);
+    }
+
+    /**
+     * Encode the whole print at once, compressing bands in parallel.
+     */
+    @Benchmark
+    public byte[] encodeParallel() {
+        return this.writer.encodeParallel(this.shades, GbpPrint.WIDTH, this.rows, TileRenderer.DEFAULT_PALETTE,
+                this.scale, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Encode the print in small bands, as it is while being received.
+     */
+    @Benchmark
+    public byte[] encodeInBands() {
+        IndexedPngWriter.Session session = this.writer.begin(GbpPrint.WIDTH, TileRenderer.DEFAULT_PALETTE, this.scale);
+        int bandRows = BAND_TILE_ROWS * 8;
+        for (int row = 0; row < this.rows; row += bandRows) {
+            session.appendRows(this.shades, row * GbpPrint.WIDTH, Math.min(bandRows, this.rows - row));
+        }
+        return session.finish();
+    }
+}
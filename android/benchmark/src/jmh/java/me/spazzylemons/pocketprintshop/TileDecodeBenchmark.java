@@ -0,0 +1,62 @@
+/*
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package me.spazzylemons.pocketprintshop;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding of 2bpp tile data into shades.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TileDecodeBenchmark {
+    /** The height of the print in pixels. */
+    @Param({ "144", "576", "2304" })
+    public int rows;
+
+    /** The tile data of the print. */
+    private byte[] tiles;
+    /** The palette of each row of tiles. */
+    private byte[] palettes;
+
+    @Setup
+    public void setup() throws IOException {
+        // the palette capture uses a non-default palette, so the lookup is not trivial
+        GbpPrint print = Captures.parse(Captures.PALETTE);
+        int tileRows = this.rows / 8;
+        this.tiles = Fixtures.repeatTiles(print, tileRows);
+        this.palettes = Fixtures.repeatPalettes(print, tileRows);
+    }
+
+    @Benchmark
+    public byte[] renderShades() {
+        return TileRenderer.renderShades(this.tiles, this.palettes);
+    }
+}
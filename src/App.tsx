@@ -24,6 +24,7 @@ import { NavigatorTheme } from './styles';
 import parsePackets, { PrinterImage } from './parsePackets';
 import { DeviceListContext, ConnectedDeviceContext, GalleryContext } from './Navigation';
 import UsbSerial from './UsbSerial';
+import PrintStore from './PrintStore';
 import { Buffer } from 'buffer';
 
 // screens
@@ -38,54 +39,52 @@ const App = () => {
     const [devices, setDevices] = useState<UsbSerial.Device[]>([]);
     const deviceList = { devices, setDevices };
 
-    const [current, setCurrent] = useState<UsbSerial.Device | null>(null);
-    const connectedDevice = { current, setCurrent };
+    const [connected, setConnected] = useState<UsbSerial.Device[]>([]);
+    const connectedDevices = { connected, setConnected };
 
     const [images, setImages] = useState<PrinterImage[]>([]);
     const gallery = { images, setImages };
 
     useEffect(() => {
-        const endData = parsePackets(image => {
+        parsePackets(image => {
             setImages(images => images.concat([image]));
         });
 
-        UsbSerial.onDisconnect(() => {
-            setCurrent(null);
-            endData();
-        });
+        // restore the prints saved in earlier sessions
+        PrintStore.list()
+            .then(entries => setImages(images => entries.map(entry => new PrinterImage(entry)).concat(images)))
+            .catch(err => console.error(err));
 
-        const updateDevices = () => {
-            UsbSerial.listDevices()
-                .then(setDevices)
-                .catch(err => {
-                    ToastAndroid.show('Failed to get device list: ' + err, ToastAndroid.LONG);
-                });
-        };
+        UsbSerial.onDisconnect(deviceId => {
+            setConnected(connected => connected.filter(device => device.id !== deviceId));
+        });
 
-        updateDevices();
+        UsbSerial.listDevices()
+            .then(setDevices)
+            .catch(err => {
+                ToastAndroid.show('Failed to get device list: ' + err, ToastAndroid.LONG);
+            });
 
-        UsbSerial.onListUpdate(updateDevices);
+        // the updated list is sent with the event
+        UsbSerial.onListUpdate(setDevices);
     }, []);
 
     useEffect(() => {
         // heartbeat loop - allows emulator to detect if connected
-        const id = setInterval(async () => {
-            if (current !== null) {
-                // send a single byte to indicate connection
-                try {
-                    await UsbSerial.write(Buffer.from([0x95]), 80);
-                } catch (err) {
-                    console.error(err);
-                }
+        const id = setInterval(() => {
+            // send a single byte to each device to indicate connection
+            for (const device of connected) {
+                UsbSerial.write(device.id, Buffer.from([0x95]), 80)
+                    .catch(err => console.error(err));
             }
         }, 100);
         // when the effect is updated, we need to clear the interval
         return () => clearInterval(id);
-    }, [current]);
+    }, [connected]);
 
     return (
         <DeviceListContext.Provider value={deviceList}>
-            <ConnectedDeviceContext.Provider value={connectedDevice}>
+            <ConnectedDeviceContext.Provider value={connectedDevices}>
                 <GalleryContext.Provider value={gallery}>
                     <NavigationContainer theme={NavigatorTheme}>
                         <Stack.Navigator>
@@ -0,0 +1,58 @@
+/**
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import { NativeModules } from 'react-native';
+
+const { MetricsModule } = NativeModules;
+
+namespace Metrics {
+    /** A summary of a histogram. Percentiles are upper bounds, accurate to within 1/8. */
+    export type Histogram = {
+        unit: string,
+        count: number,
+        mean: number,
+        p50: number,
+        p90: number,
+        p99: number,
+        max: number,
+    };
+
+    export type Snapshot = {
+        counters: { [name: string]: number },
+        histograms: { [name: string]: Histogram },
+    };
+
+    export function get(): Promise<Snapshot> {
+        return MetricsModule.getMetrics();
+    }
+
+    export function reset() {
+        MetricsModule.resetMetrics();
+    }
+
+    /**
+     * Periodically dump the metrics to the log.
+     * @param interval The time in milliseconds between dumps, or 0 to stop dumping.
+     * @param toFile   True to also write each dump to metrics.txt in the app's files directory.
+     */
+    export function setDumpInterval(interval: number, toFile: boolean): Promise<null> {
+        return MetricsModule.setDumpInterval(interval, toFile);
+    }
+}
+
+export default Metrics;
@@ -26,9 +26,9 @@ interface DeviceList {
     setDevices: (devices: UsbSerial.Device[]) => void,
 };
 
-interface ConnectedDevice {
-    current: UsbSerial.Device | null,
-    setCurrent: (current: UsbSerial.Device | null) => void,
+interface ConnectedDevices {
+    connected: UsbSerial.Device[],
+    setConnected: (update: (connected: UsbSerial.Device[]) => UsbSerial.Device[]) => void,
 };
 
 interface Images {
@@ -37,7 +37,7 @@ interface Images {
 }
 
 export const DeviceListContext = createContext<DeviceList>({ devices: [], setDevices: () => {} });
-export const ConnectedDeviceContext = createContext<ConnectedDevice>({ current: null, setCurrent: () => {} });
+export const ConnectedDeviceContext = createContext<ConnectedDevices>({ connected: [], setConnected: () => {} });
 export const GalleryContext = createContext<Images>({ images: [], setImages: () => {} });
 
 export interface PhotoParams { image: PrinterImage };
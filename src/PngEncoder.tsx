@@ -25,6 +25,53 @@ namespace PngEncoder {
     export function encode(pixels: Uint32Array, width: number, height: number): Promise<string> {
         return PngEncoderModule.encode(Buffer.from(pixels.buffer).toString('base64'), width, height);
     }
+
+    /**
+     * Render Game Boy tile data as a PNG image.
+     * @param tileData The 2bpp tile data, made up of complete rows of tiles, encoded in Base64.
+     * @param palettes The palette byte for each row of tiles.
+     * @param scale    The factor to scale the image by.
+     * @return The PNG data encoded in Base64.
+     */
+    export function renderTiles(tileData: string, palettes: number[], scale: number): Promise<string> {
+        return PngEncoderModule.renderTiles(tileData, palettes, scale);
+    }
+
+    /**
+     * Begin encoding a print whose height is not known yet.
+     * @param scale The factor to scale the image by.
+     * @return The session ID to pass to the other session functions.
+     */
+    export function beginImage(scale: number): Promise<number> {
+        return PngEncoderModule.beginImage(scale);
+    }
+
+    /**
+     * Render Game Boy tile data and compress it into an image being encoded.
+     * @param id       The session ID.
+     * @param tileData The 2bpp tile data, made up of complete rows of tiles, encoded in Base64.
+     * @param palettes The palette byte for each row of tiles.
+     */
+    export function appendRows(id: number, tileData: string, palettes: number[]): Promise<null> {
+        return PngEncoderModule.appendRows(id, tileData, palettes);
+    }
+
+    /**
+     * Finish an image being encoded.
+     * @param id The session ID.
+     * @return The PNG data encoded in Base64.
+     */
+    export function finishImage(id: number): Promise<string> {
+        return PngEncoderModule.finishImage(id);
+    }
+
+    /**
+     * Discard an image being encoded.
+     * @param id The session ID.
+     */
+    export function abortImage(id: number): void {
+        PngEncoderModule.abortImage(id);
+    }
 }
 
 export default PngEncoder;
@@ -0,0 +1,71 @@
+/**
+ * Pocket Print Shop - Print portable game pictures from your phone
+ * Copyright (C) 2022 spazzylemons
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import { NativeModules } from 'react-native';
+
+const { PrintStoreModule } = NativeModules;
+
+namespace PrintStore {
+    /** A print saved to storage. The height is in pixels at 1x resolution. */
+    export type Entry = { id: string, uri: string, path: string, height: number };
+
+    export function list(): Promise<Entry[]> {
+        return PrintStoreModule.list();
+    }
+
+    export function remove(id: string): Promise<null> {
+        return PrintStoreModule.remove(id);
+    }
+
+    /**
+     * Append every stored print to a compact archive of their raw tile data, creating it if
+     * needed. Prints that the archive already holds are not written again.
+     * @param path The path of the archive file to write.
+     * @returns The number of prints written.
+     */
+    export function exportArchive(path: string): Promise<number> {
+        return PrintStoreModule.exportArchive(path);
+    }
+
+    /**
+     * Store every print in an archive written by {@link exportArchive}. Prints that are already
+     * stored are skipped.
+     * @param path The path of the archive file to read.
+     * @returns The newly stored prints.
+     */
+    export function importArchive(path: string): Promise<Entry[]> {
+        return PrintStoreModule.importArchive(path);
+    }
+
+    /**
+     * Get a print in different colors, without encoding it again.
+     * @param id     The ID of the print.
+     * @param colors Four RGB colors from darkest to lightest, such as 0x0f380f.
+     * @returns The file URI of the recolored print, which is kept in the cache directory.
+     */
+    export function recolor(id: string, colors: [number, number, number, number]): Promise<string> {
+        return PrintStoreModule.recolor(id, colors);
+    }
+
+    /** Get the URI of a small preview of a print, generating it if needed. */
+    export function getThumbnail(id: string): Promise<string> {
+        return PrintStoreModule.getThumbnail(id);
+    }
+}
+
+export default PrintStore;
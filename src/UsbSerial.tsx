@@ -19,6 +19,7 @@
 import { Buffer } from 'buffer';
 import { NativeEventEmitter, NativeModules } from 'react-native';
 import type { EmitterSubscription } from 'react-native';
+import PrintStore from './PrintStore';
 
 const { UsbSerialModule } = NativeModules;
 
@@ -27,38 +28,133 @@ const eventEmitter = new NativeEventEmitter(UsbSerialModule);
 namespace UsbSerial {
     export type Device = { id: number, name: string | null };
 
+    /** A print received from a device, saved to storage as a PNG at 2x resolution. */
+    export type Print = PrintStore.Entry & { deviceId: number };
+
     export function listDevices(): Promise<Device[]> {
         return UsbSerialModule.listDevices();
     }
 
-    export function connect(deviceId: number): Promise<null> {
-        return UsbSerialModule.connect(deviceId);
+    /** Serial parameters and read tuning. Options that are not given keep their defaults. */
+    export type ConnectOptions = {
+        /** The baud rate of the serial port. Defaults to 115200. */
+        baudRate?: number,
+        /** The size of each read in bytes. Defaults to the driver's packet size. */
+        readBufferSize?: number,
+        /** The timeout of each read in milliseconds. Defaults to 0, which blocks until data arrives. */
+        readTimeout?: number,
+        /** The Android priority of the thread that reads from the port, from -19 to 19. */
+        threadPriority?: number,
+        /**
+         * The number of reads to keep queued on the device, from 0 to 64. Defaults to 0, which reads
+         * one transfer at a time. Queueing several avoids dropped data at high baud rates. FTDI
+         * devices always read one transfer at a time.
+         */
+        readRequests?: number,
+    };
+
+    export function connect(deviceId: number, options?: ConnectOptions): Promise<null> {
+        return UsbSerialModule.connect(deviceId, options ?? null);
+    }
+
+    export function disconnect(deviceId: number): void {
+        UsbSerialModule.disconnect(deviceId);
     }
 
-    export function disconnect(): void {
-        UsbSerialModule.disconnect();
+    export function disconnectAll(): void {
+        UsbSerialModule.disconnectAll();
     }
 
-    export function onDisconnect(callback: () => void): EmitterSubscription {
-        return eventEmitter.addListener('usbSerialDisconnect', callback);
+    /** How a photo is converted and sent to a printer. Options that are not given keep their defaults. */
+    export type PrintOptions = {
+        /** The dithering method. Defaults to 'floydSteinberg'. */
+        dither?: 'ordered' | 'floydSteinberg',
+        /** The margins byte: the high nibble is the feed before, the low nibble after. Defaults to 0x13. */
+        margins?: number,
+        /** The exposure, from 0 to 0x7f. Defaults to 0x40. */
+        exposure?: number,
+        /** Whether to compress tile data where that makes it smaller. Defaults to true. */
+        compress?: boolean,
+        /** The time in milliseconds to wait after each packet. Defaults to 20. */
+        packetDelay?: number,
+        /** The time in milliseconds to wait after each print command. Defaults to 4000. */
+        printDelay?: number,
+    };
+
+    /**
+     * Print a photo on a printer connected through a device.
+     * @param deviceId The ID of the device.
+     * @param uri      The URI of the photo.
+     * @param options  How the photo is converted and sent.
+     * @returns Resolves once every packet is sent.
+     */
+    export function printImage(deviceId: number, uri: string, options?: PrintOptions): Promise<null> {
+        return UsbSerialModule.printImage(deviceId, uri, options ?? null);
+    }
+
+    export function onDisconnect(callback: (deviceId: number) => void): EmitterSubscription {
+        return eventEmitter.addListener('usbSerialDisconnect', ({ deviceId }) => {
+            callback(deviceId);
+        });
     }
 
-    export function onRead(callback: (data: Buffer) => void): EmitterSubscription {
-        return eventEmitter.addListener('usbSerialRead', ({ data }) => {
-            callback(Buffer.from(data, 'base64'));
+    /**
+     * Listen for raw data read from devices. Nothing is sent until enabled with setReadEvents.
+     * Completed prints are sent through onPrint either way.
+     */
+    export function onRead(callback: (deviceId: number, data: Buffer) => void): EmitterSubscription {
+        return eventEmitter.addListener('usbSerialRead', ({ deviceId, data }) => {
+            callback(deviceId, Buffer.from(data, 'base64'));
         });
     }
 
-    export function onListUpdate(callback: () => void): EmitterSubscription {
-        return eventEmitter.addListener('usbSerialListUpdate', callback);
+    export function onPrint(callback: (print: Print) => void): EmitterSubscription {
+        return eventEmitter.addListener('usbSerialPrint', callback);
+    }
+
+    /**
+     * Configure how read data is coalesced before being sent from the device.
+     * @param interval The maximum time in milliseconds to hold data, or 0 to send it immediately.
+     * @param maxBytes The number of bytes after which data is sent immediately.
+     */
+    export function setReadBatching(interval: number, maxBytes: number): Promise<null> {
+        return UsbSerialModule.setReadBatching(interval, maxBytes);
+    }
+
+    /**
+     * Choose whether raw read data is sent to onRead listeners. Defaults to false.
+     * @param enabled True to send read data.
+     */
+    export function setReadEvents(enabled: boolean): void {
+        UsbSerialModule.setReadEvents(enabled);
+    }
+
+    /**
+     * Listen for serial devices being attached or detached.
+     * @param callback Receives the new list of available devices.
+     */
+    export function onListUpdate(callback: (devices: Device[]) => void): EmitterSubscription {
+        return eventEmitter.addListener('usbSerialListUpdate', event => callback(event.devices));
     }
 
     export function getDeviceName(device: UsbSerial.Device) {
         return device.name ?? `[id ${device.id}]`;
     }
 
-    export function write(data: Buffer, timeout: number): Promise<null> {
-        return UsbSerialModule.write(data.toString('base64'), timeout);
+    /**
+     * Queue data to be written to a device.
+     * @param deviceId The ID of the device to write to.
+     * @param data    The data to write.
+     * @param timeout The timeout of the write in milliseconds. 0 means no timeout.
+     * @returns Resolves once written. Rejects on failure, on disconnect, or if the queue is full.
+     */
+    export function write(deviceId: number, data: Buffer, timeout: number): Promise<null> {
+        return UsbSerialModule.write(deviceId, data.toString('base64'), timeout);
+    }
+
+    /** Get the number of writes waiting to be sent, to slow down before the queue is full. */
+    export function getWriteQueueDepth(deviceId: number): Promise<{ depth: number, capacity: number }> {
+        return UsbSerialModule.getWriteQueueDepth(deviceId);
     }
 }
 
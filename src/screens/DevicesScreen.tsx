@@ -24,11 +24,13 @@ import { DeviceListContext, ConnectedDeviceContext } from '../Navigation';
 
 const DevicesScreen = () => {
     const { devices } = useContext(DeviceListContext);
-    const { current, setCurrent } = useContext(ConnectedDeviceContext);
+    const { connected, setConnected } = useContext(ConnectedDeviceContext);
+
+    const isConnected = (device: UsbSerial.Device) => connected.some(other => other.id === device.id);
 
     const getDeviceStyles = (device: UsbSerial.Device) => {
         const deviceStyles: object[] = [styles.availableDevice];
-        if (device.id === current?.id) {
+        if (isConnected(device)) {
             // show that it is connected
             deviceStyles.push(styles.connectedDevice);
         }
@@ -36,27 +38,18 @@ const DevicesScreen = () => {
     };
 
     const connect = async (device: UsbSerial.Device) => {
-        if (current?.id === device.id) {
+        if (isConnected(device)) {
             // if we're connected to this very device, we'll do a disconnect instead
             try {
-                UsbSerial.disconnect();
+                UsbSerial.disconnect(device.id);
             } catch (err) {
                 console.log(err);
             }
         } else {
-            if (current !== null) {
-                // If we're connected to another device, disconnect first
-                try {
-                    UsbSerial.disconnect();
-                } catch (err) {
-                    console.log(err);
-                    return;
-                }
-            }
-
+            // other devices stay connected, so that several printers can be used at once
             try {
                 await UsbSerial.connect(device.id);
-                setCurrent(device);
+                setConnected(connected => connected.concat([device]));
             } catch (err) {
                 ToastAndroid.show('Connection failed: ' + err, ToastAndroid.LONG);
             }
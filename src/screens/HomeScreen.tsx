@@ -25,13 +25,13 @@ import Navigation, { ConnectedDeviceContext, GalleryContext } from '../Navigatio
 import Icon from 'react-native-vector-icons/Feather';
 
 const HomeScreen = ({ navigation }: { navigation: Navigation }) => {
-    const { current } = useContext(ConnectedDeviceContext);
+    const { connected } = useContext(ConnectedDeviceContext);
     const { images } = useContext(GalleryContext);
 
     return <View style={styles.main}>
-        {current !== null
+        {connected.length > 0
             ? <Text style={styles.textLine}>
-                <Icon name='check' size={16} /> Connected to {UsbSerial.getDeviceName(current)}
+                <Icon name='check' size={16} /> Connected to {connected.map(UsbSerial.getDeviceName).join(', ')}
             </Text>
             : <Text style={styles.textLine}>
                 <Icon name='alert-circle' size={16} /> Not connected
@@ -45,7 +45,7 @@ const HomeScreen = ({ navigation }: { navigation: Navigation }) => {
             renderItem={({ item }) => (
                 <View style={styles.pictureFrame}>
                     <Pressable onPress={() => navigation.navigate('Photo', { image: item })}>
-                        {item.render()}
+                        {item.renderThumbnail()}
                     </Pressable>
                 </View>
             )}/>
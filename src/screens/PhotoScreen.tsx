@@ -42,6 +42,7 @@ const PhotoScreen = ({ navigation, route }: { navigation: Navigation, route: { p
                     <PhotoIcon name='share' />
                 </Pressable>
                 <Pressable style={styles.photoIcon} onPress={() => {
+                    image.remove();
                     setImages(images.filter(i => i !== image));
                     navigation.goBack();
                 }}>